@@ -0,0 +1,628 @@
+package openzero;
+
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.Side;
+import com.github.bhlangonijr.chesslib.move.Move;
+import openzero.MCTS.ExpansionPolicy;
+import openzero.MCTS.GumbelRoot;
+import openzero.MCTS.MonteCarloTreeSearch;
+import openzero.MCTS.Proof;
+import openzero.MCTS.SearchLimits;
+import openzero.MCTS.TimeManager;
+import openzero.MCTS.TreeBenchmarks;
+import openzero.utils.Analysis;
+import openzero.utils.ChessModelInterpreter;
+import openzero.utils.EvaluationCache;
+import openzero.utils.InferenceService;
+import openzero.utils.MoveCodec;
+import openzero.utils.PositionEncoder;
+import openzero.utils.TopK;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Mesures de performance du moteur (à lancer avec exec:java, -Dexec.mainClass=openzero.Benchmark).
+ * Usage : Benchmark <mode> [chemin du modèle]
+ */
+public class Benchmark {
+    //Positions de milieu de partie utilisées pour les mesures
+    private static final String[] FENS = {
+            "r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4",
+            "r2q1rk1/ppp2ppp/2npbn2/2b1p3/2B1P3/2PP1N2/PP1N1PPP/R1BQ1RK1 w - - 0 8",
+            "r1bq1rk1/pp2bppp/2n1pn2/2pp4/3P4/2PBPN2/PP1N1PPP/R1BQ1RK1 w - - 0 8",
+            "2rq1rk1/pb1nbppp/1p2pn2/2pp4/3P4/1P1BPN2/PBPN1PPP/R2Q1RK1 w - - 0 10"
+    };
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0].toLowerCase() : "batch";
+        String path = args.length > 1 ? args[1] : "src/main/resources/OpenZero5.zip";
+
+        switch (mode) {
+            case "batch":
+                benchmarkBatchSize(loadInterpreter(path), 401);
+                break;
+            case "threads":
+                benchmarkThreads(loadInterpreter(path), 801, 8);
+                break;
+            case "pipeline":
+                benchmarkPipeline(loadInterpreter(path), 801, 8);
+                break;
+            case "service":
+                benchmarkInferenceService(loadInterpreter(path), 401, 8);
+                break;
+            case "memcap":
+                benchmarkMemoryCap(loadInterpreter(path), 20_001, 8, 4_000);
+                break;
+            case "stats":
+                showSearchStats(loadInterpreter(path), 2_000, 250);
+                break;
+            case "clock":
+                benchmarkTimeManager(loadInterpreter(path), 60_000, 500, 40);
+                break;
+            case "tt":
+                benchmarkTranspositionTable(loadInterpreter(path), 801);
+                break;
+            case "cache":
+                benchmarkEvaluationCache(loadInterpreter(path), 801);
+                break;
+            case "batchapi":
+                benchmarkBatchAnalysis(loadInterpreter(path), randomPositions(4_096, 3), new int[]{16, 64, 256, 1024});
+                break;
+            case "widening":
+                benchmarkExpansionPolicies(loadInterpreter(path), 801);
+                break;
+            case "gumbel": {
+                ChessModelInterpreter interpreter = loadInterpreter(path);
+                benchmarkGumbelMatch(interpreter, 16, 160);
+                benchmarkGumbelMatch(interpreter, 32, 160);
+                break;
+            }
+            case "solver":
+                benchmarkSolver(loadInterpreter(path), 4001);
+                break;
+            case "alloc":
+                TreeBenchmarks.benchmarkAllocation(100_000, new int[]{10, 30, 60});
+                break;
+            case "deep":
+                TreeBenchmarks.benchmarkDeepLine(new int[]{64, 1_000, 100_000}, 20_000_000);
+                break;
+            case "codec":
+                benchmarkMoveCodec(new ChessModelInterpreter(), randomPositions(200, 7));
+                break;
+            case "encoder":
+                benchmarkPositionEncoder(new ChessModelInterpreter(), randomPositions(1_000, 5));
+                break;
+            case "select":
+                TreeBenchmarks.benchmarkSelection(new int[]{8, 16, 32, 64, 128}, 1_000_000);
+                break;
+            case "topk":
+                benchmarkTopK(1, 10, 2000);
+                benchmarkTopK(32, 10, 200);
+                break;
+            default:
+                System.out.println("Erreur : mode inconnu '" + mode + "'");
+        }
+    }
+
+    private static ChessModelInterpreter loadInterpreter(String path) throws Exception {
+        ChessModelInterpreter interpreter = new ChessModelInterpreter();
+        interpreter.LoadModel(path);
+        return interpreter;
+    }
+
+    /**
+     * Simulations par seconde de MCTS en fonction de la taille des lots envoyés au réseau.
+     */
+    public static void benchmarkBatchSize(ChessModelInterpreter interpreter, int simulations) {
+        int[] batchSizes = {1, 2, 4, 8, 16, 32};
+        for (int batchSize : batchSizes) {
+            MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, simulations, 10, batchSize);
+            interpreter.getCache().clear(); //chaque configuration part d'un cache des évaluations vide
+            SearchLimits fixed = SearchLimits.nodes(simulations).withEarlyStop(false); //mesure à nombre de simulations constant
+            mcts.startMCTS(FENS[0], fixed); //échauffement
+            long start = System.nanoTime();
+            for (String fen : FENS) {
+                mcts.startMCTS(fen, fixed);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("batch = %2d : %8.1f simulations/s%n", batchSize, simulations * FENS.length / seconds);
+        }
+    }
+
+    /**
+     * Passage à l'échelle de la recherche parallèle (noeuds par seconde) de 1 à 32 threads.
+     */
+    public static void benchmarkThreads(ChessModelInterpreter interpreter, int simulations, int batchSize) {
+        int[] threadCounts = {1, 2, 4, 8, 16, 32};
+        double reference = 0;
+        for (int threads : threadCounts) {
+            MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, simulations, 10, batchSize, threads);
+            interpreter.getCache().clear(); //chaque configuration part d'un cache des évaluations vide
+            SearchLimits fixed = SearchLimits.nodes(simulations).withEarlyStop(false); //mesure à nombre de simulations constant
+            mcts.startMCTS(FENS[0], fixed); //échauffement
+            long start = System.nanoTime();
+            for (String fen : FENS) {
+                mcts.startMCTS(fen, fixed);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double nps = simulations * FENS.length / seconds;
+            if (threads == 1) reference = nps;
+            System.out.printf("threads = %2d : %8.1f noeuds/s (x%.2f)%n", threads, nps, nps / reference);
+        }
+    }
+
+    /**
+     * Recherche synchrone par lots contre recherche en pipeline (thread d'inférence dédié),
+     * avec l'utilisation de chaque étage : réseau, arbre, attente des résultats.
+     */
+    public static void benchmarkPipeline(ChessModelInterpreter interpreter, int simulations, int batchSize) {
+        SearchLimits fixed = SearchLimits.nodes(simulations).withEarlyStop(false);
+        MonteCarloTreeSearch sync = new MonteCarloTreeSearch(interpreter, simulations, 10, batchSize);
+        interpreter.getCache().clear(); //chaque configuration part d'un cache des évaluations vide
+        sync.startMCTS(FENS[0], fixed); //échauffement
+        long start = System.nanoTime();
+        for (String fen : FENS) sync.startMCTS(fen, fixed);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("synchrone, lots de %d : %8.1f simulations/s%n", batchSize, simulations * FENS.length / seconds);
+
+        for (int threads : new int[]{1, 2, 4}) {
+            try (InferenceService pipeline = new InferenceService(interpreter, 1, 32, 0, 64)) {
+                MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, simulations, 10, batchSize, threads);
+                interpreter.getCache().clear(); //chaque configuration part d'un cache des évaluations vide
+                mcts.setPipeline(pipeline);
+                mcts.startMCTS(FENS[0], fixed); //échauffement
+                pipeline.resetStats();
+                long tree = 0, wait = 0;
+                start = System.nanoTime();
+                for (String fen : FENS) {
+                    mcts.startMCTS(fen, fixed);
+                    tree += mcts.getTreeNanos().get();
+                    wait += mcts.getWaitNanos().get();
+                }
+                long wall = System.nanoTime() - start;
+                System.out.printf("pipeline, %d thread(s), %d feuilles en vol : %8.1f simulations/s | réseau %.0f%% | arbre %.0f%% | attente %.0f%% | lot moyen %.1f | file max %d%n",
+                        threads, batchSize, simulations * FENS.length / (wall / 1e9),
+                        100 * pipeline.getInferenceUtilisation(), 100.0 * tree / (threads * (double) wall),
+                        100.0 * wait / (threads * (double) wall), pipeline.getMeanBatchSize(), pipeline.getMaxQueueDepth());
+            }
+        }
+    }
+
+    /**
+     * Plusieurs recherches en parallèle (une par thread, comme des parties simultanées) sur le même interpréteur :
+     * appels directs au réseau (sérialisés) contre le service d'inférence qui regroupe leurs feuilles en lots.
+     * @param games le nombre maximum de recherches simultanées
+     */
+    public static void benchmarkInferenceService(ChessModelInterpreter interpreter, int simulations, int games) {
+        SearchLimits fixed = SearchLimits.nodes(simulations).withEarlyStop(false);
+        for (boolean useService : new boolean[]{false, true}) {
+            for (int count = 1; count <= games; count *= 2) {
+                InferenceService service = useService ? new InferenceService(interpreter, 1, 32, 500, 256) : null;
+                interpreter.setInferenceService(service);
+                interpreter.getCache().clear(); //chaque configuration part d'un cache des évaluations vide
+                Thread[] threads = new Thread[count];
+                long start = System.nanoTime();
+                for (int g = 0; g < count; g++) {
+                    String fen = FENS[g % FENS.length];
+                    MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, simulations, 10, 4);
+                    mcts.setUseCache(false); //les recherches sur la même position ne profitent pas des évaluations des autres
+                    threads[g] = new Thread(() -> mcts.startMCTS(fen, fixed), "partie-" + g);
+                    threads[g].start();
+                }
+                for (Thread thread : threads) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%-8s %2d recherches : %8.1f simulations/s%s%n", useService ? "service" : "direct", count,
+                        (double) simulations * count / seconds, service == null ? "" : " | " + service);
+                if (service != null) service.close();
+            }
+        }
+        interpreter.setInferenceService(null);
+    }
+
+    /**
+     * Longue recherche sans limite de taille puis avec maxNodes : taille de l'arbre, noeuds repliés et recyclés,
+     * mémoire occupée et simulations par seconde.
+     */
+    public static void benchmarkMemoryCap(ChessModelInterpreter interpreter, int simulations, int batchSize, int maxNodes) {
+        SearchLimits fixed = SearchLimits.nodes(simulations).withEarlyStop(false);
+        for (int cap : new int[]{0, maxNodes}) {
+            MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, simulations, 10, batchSize);
+            interpreter.getCache().clear(); //chaque configuration part d'un cache des évaluations vide
+            mcts.setMaxNodes(cap);
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            long before = runtime.totalMemory() - runtime.freeMemory();
+            long start = System.nanoTime();
+            mcts.startMCTS(FENS[1], fixed);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.gc();
+            long after = runtime.totalMemory() - runtime.freeMemory();
+            System.out.printf("maxNodes = %-6s : %7d noeuds | %8d repliés | %8d recyclés | %6.1f Mo | %7.1f simulations/s%n",
+                    cap == 0 ? "-" : String.valueOf(cap), mcts.treeSize(), mcts.getCollapsedNodes(), mcts.getReusedNodes(),
+                    (after - before) / 1e6, simulations / seconds);
+        }
+    }
+
+    /**
+     * Partie contre lui-même à la pendule : TimeManager répartit le temps restant de chaque camp entre ses coups.
+     * Affiche le temps alloué et le temps réellement utilisé à chaque coup (l'arrêt anticipé rend le reste à la pendule).
+     */
+    public static void benchmarkTimeManager(ChessModelInterpreter interpreter, long clockMillis, long incrementMillis, int maxPlies) {
+        TimeManager timeManager = new TimeManager();
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, 0, 10, 8);
+        long[] clocks = {clockMillis, clockMillis}; //blancs, noirs
+        int earlyStops = 0, plies = 0;
+        Board board = new Board();
+        board.loadFromFen(FENS[0]);
+        while (plies < maxPlies && !board.isMated() && !board.isDraw() && !board.isStaleMate()) {
+            int side = board.getSideToMove() == Side.WHITE ? 0 : 1;
+            SearchLimits limits = timeManager.allocate(clocks[side], incrementMillis, 0);
+            long start = System.nanoTime();
+            INDArray[] result = mcts.startMCTS(board.getFen(), limits);
+            long used = (System.nanoTime() - start) / 1_000_000;
+            clocks[side] += incrementMillis - used;
+            if (used < limits.getTime_millis() * 9 / 10) earlyStops++;
+            System.out.printf("coup %2d %s : alloué %5d ms, utilisé %5d ms, %6d simulations, pendule %6d ms%n",
+                    plies / 2 + 1, side == 0 ? "blancs" : "noirs ", limits.getTime_millis(), used,
+                    mcts.getStats().getSimulations(), clocks[side]);
+            board.doMove(MoveCodec.decode(result[0].getInt(Nd4j.argMax(result[1], 0).getInt(0)), board));
+            plies++;
+        }
+        System.out.printf("%d coups, %d arrêtés avant 90%% du temps alloué | pendules : blancs %d ms, noirs %d ms%n",
+                plies, earlyStops, clocks[0], clocks[1]);
+    }
+
+    /**
+     * Statistiques en direct d'une recherche limitée en temps (listener appelé toutes les intervalMillis),
+     * puis la photographie finale.
+     */
+    public static void showSearchStats(ChessModelInterpreter interpreter, long millis, long intervalMillis) {
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, 0, 10, 8);
+        mcts.setStatsListener(stats -> System.out.println("  " + stats), intervalMillis);
+        mcts.startMCTS(FENS[1], SearchLimits.time(millis).withEarlyStop(false));
+        mcts.setStatsListener(null, 0);
+        System.out.println("final : " + mcts.getStats());
+    }
+
+    /**
+     * Noeuds créés, simulations par seconde et coup choisi pour chaque politique d'expansion,
+     * à nombre de simulations égal.
+     */
+    public static void benchmarkExpansionPolicies(ChessModelInterpreter interpreter, int simulations) {
+        ExpansionPolicy[] policies = {
+                ExpansionPolicy.fixed(10),
+                ExpansionPolicy.visits(2, 1.5f, 0.5f, 40),
+                ExpansionPolicy.mass(0.9f, 40)
+        };
+        SearchLimits fixed = SearchLimits.nodes(simulations).withEarlyStop(false);
+        for (ExpansionPolicy policy : policies) {
+            long nodes = 0;
+            long start = System.nanoTime();
+            StringBuilder bestMoves = new StringBuilder();
+            for (String fen : FENS) {
+                MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, simulations, 10);
+                interpreter.getCache().clear(); //chaque configuration part d'un cache des évaluations vide
+                mcts.setExpansionPolicy(policy);
+                INDArray[] result = mcts.startMCTS(fen, fixed);
+                nodes += mcts.treeSize();
+                bestMoves.append(' ').append(result[0].getInt(Nd4j.argMax(result[1], 0).getInt(0)));
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-32s : %7.1f noeuds/recherche | %8.1f simulations/s | coups :%s%n",
+                    policy, (double) nodes / FENS.length, simulations * FENS.length / seconds, bestMoves);
+        }
+    }
+
+    /**
+     * Match sans interface entre la recherche Gumbel à la racine et PUCT, au même nombre de simulations par coup
+     * (donc au même nombre d'évaluations du réseau, hors cache des évaluations).
+     * Chaque position de FENS est jouée deux fois, couleurs inversées ; une partie trop longue est comptée nulle.
+     */
+    public static void benchmarkGumbelMatch(ChessModelInterpreter interpreter, int simulations, int maxPlies) {
+        SearchLimits fixed = SearchLimits.nodes(simulations).withEarlyStop(false);
+        int wins = 0, draws = 0, losses = 0;
+        for (String fen : FENS) {
+            for (boolean gumbelWhite : new boolean[]{true, false}) {
+                MonteCarloTreeSearch gumbel = new MonteCarloTreeSearch(interpreter, simulations, 10);
+                gumbel.setGumbelRoot(new GumbelRoot());
+                MonteCarloTreeSearch puct = new MonteCarloTreeSearch(interpreter, simulations, 10);
+                int result = playGame(fen, gumbelWhite ? gumbel : puct, gumbelWhite ? puct : gumbel, fixed, maxPlies);
+                if (!gumbelWhite) result = -result;
+                if (result > 0) wins++;
+                else if (result < 0) losses++;
+                else draws++;
+            }
+        }
+        double score = (wins + draws / 2.0) / (wins + draws + losses);
+        System.out.printf("%d simulations : Gumbel +%d =%d -%d contre PUCT (score %.3f)%n", simulations, wins, draws, losses, score);
+    }
+
+    /**
+     * Joue une partie entre deux recherches.
+     * @return 1 si les blancs gagnent, -1 si les noirs gagnent, 0 pour une nulle (ou après maxPlies demi-coups)
+     */
+    private static int playGame(String fen, MonteCarloTreeSearch white, MonteCarloTreeSearch black, SearchLimits limits, int maxPlies) {
+        Board board = new Board();
+        board.loadFromFen(fen);
+        for (int ply = 0; ply < maxPlies; ply++) {
+            if (board.isMated()) return board.getSideToMove() == Side.WHITE ? -1 : 1;
+            if (board.isDraw() || board.isStaleMate()) return 0;
+            MonteCarloTreeSearch engine = board.getSideToMove() == Side.WHITE ? white : black;
+            INDArray[] result = engine.startMCTS(board.getFen(), limits);
+            board.doMove(MoveCodec.decode(result[0].getInt(Nd4j.argMax(result[1], 0).getInt(0)), board));
+        }
+        return 0;
+    }
+
+    /**
+     * Simulations utilisées et coup choisi sur des positions de mat forcé, avec et sans MCTS-solver.
+     * Avec le solver, la recherche s'arrête dès que le résultat de la racine est prouvé.
+     */
+    public static void benchmarkSolver(ChessModelInterpreter interpreter, int simulations) {
+        String[] mates = {
+                "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1", //mat en 1 : Rd8#
+                "r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 4 4", //mat en 1 : Qxf7#
+                "7k/8/8/8/8/8/R7/1R5K w - - 0 1" //mat en 2 : Rb7 Kg8 Ra8#
+        };
+        for (boolean solver : new boolean[]{false, true}) {
+            for (String fen : mates) {
+                MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, simulations, 10);
+                interpreter.getCache().clear(); //chaque configuration part d'un cache des évaluations vide
+                mcts.setSolver(solver);
+                long start = System.nanoTime();
+                INDArray[] result = mcts.startMCTS(fen, SearchLimits.nodes(simulations));
+                double millis = (System.nanoTime() - start) / 1e6;
+                Board board = new Board();
+                board.loadFromFen(fen);
+                Move best = MoveCodec.decode(result[0].getInt(Nd4j.argMax(result[1], 0).getInt(0)), board);
+                Proof proof = mcts.getRootProof();
+                System.out.printf("solver %-3s : %5d simulations, %7.1f ms, coup %-5s, racine %s | %s%n",
+                        solver ? "oui" : "non", mcts.getCompleted().get(), millis, best, proof, fen);
+            }
+        }
+    }
+
+    /**
+     * Positions obtenues par des parties aléatoires depuis la position initiale (une position par coup joué).
+     * @param count le nombre de positions
+     * @param seed la graine, pour retrouver les mêmes positions d'un lancement à l'autre
+     */
+    public static List<String> randomPositions(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> fens = new ArrayList<>();
+        Board board = new Board();
+        while (fens.size() < count) {
+            List<Move> moves = board.legalMoves();
+            if (moves.isEmpty() || board.isDraw()) {
+                board = new Board();
+                continue;
+            }
+            board.doMove(moves.get(random.nextInt(moves.size())));
+            fens.add(board.getFen());
+        }
+        return fens;
+    }
+
+    /**
+     * Temps et octets alloués par position : FenToTensor, BoardToTensor, PositionEncoder vers un float[]
+     * et vers un tenseur de lot réutilisé.
+     */
+    public static void benchmarkPositionEncoder(ChessModelInterpreter interpreter, List<String> fens) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        List<Board> boards = new ArrayList<>();
+        for (String fen : fens) {
+            Board board = new Board();
+            board.loadFromFen(fen);
+            boards.add(board);
+        }
+        float[] data = new float[PositionEncoder.PLANES];
+        INDArray batch = Nd4j.create(DataType.FLOAT, fens.size(), 8, 8, 17);
+        String[] names = {"FenToTensor", "BoardToTensor", "encodeur float[]", "encodeur lot"};
+        for (int round = 0; round < 2; round++) { //le premier tour sert d'échauffement
+            for (int method = 0; method < names.length; method++) {
+                long hash = 0;
+                long bytes = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                for (int p = 0; p < fens.size(); p++) {
+                    switch (method) {
+                        case 0:
+                            hash += interpreter.FenToTensor(fens.get(p)).length();
+                            break;
+                        case 1:
+                            hash += interpreter.BoardToTensor(boards.get(p)).length();
+                            break;
+                        case 2:
+                            PositionEncoder.encode(boards.get(p), data, 0);
+                            hash += (long) data[12];
+                            break;
+                        default:
+                            PositionEncoder.encode(boards.get(p), batch, p);
+                    }
+                }
+                double ns = (double) (System.nanoTime() - start) / fens.size();
+                bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+                if (round == 1) {
+                    System.out.printf("%-17s : %9.1f ns/position | %8.1f octets/position [%d]%n",
+                            names[method], ns, (double) bytes / fens.size(), hash % 10);
+                }
+            }
+        }
+    }
+
+    /**
+     * Coût du décodage d'un indice de politique : MoveCodec contre translateMoves.
+     */
+    public static void benchmarkMoveCodec(ChessModelInterpreter interpreter, List<String> fens) {
+        List<Board> boards = new ArrayList<>();
+        List<INDArray> tensors = new ArrayList<>();
+        List<int[]> indices = new ArrayList<>();
+        for (String fen : fens) {
+            Board board = new Board();
+            board.loadFromFen(fen);
+            List<Move> moves = board.legalMoves();
+            int[] codes = new int[moves.size()];
+            for (int i = 0; i < codes.length; i++) codes[i] = MoveCodec.encode(moves.get(i));
+            boards.add(board);
+            tensors.add(interpreter.FenToTensor(fen));
+            indices.add(codes);
+        }
+
+        for (int round = 0; round < 2; round++) { //le premier tour sert d'échauffement
+            long decoded = 0;
+            long hash = 0;
+            long start = System.nanoTime();
+            for (int p = 0; p < boards.size(); p++) {
+                for (int index : indices.get(p)) {
+                    hash += interpreter.translateMoves(index, tensors.get(p)).length();
+                    decoded++;
+                }
+            }
+            double translateNs = (double) (System.nanoTime() - start) / decoded;
+
+            start = System.nanoTime();
+            for (int repeat = 0; repeat < 100; repeat++) {
+                for (int p = 0; p < boards.size(); p++) {
+                    for (int index : indices.get(p)) {
+                        hash += MoveCodec.decode(index, boards.get(p)).getTo().ordinal();
+                    }
+                }
+            }
+            double codecNs = (double) (System.nanoTime() - start) / (decoded * 100);
+            if (round == 1) {
+                System.out.printf("translateMoves : %8.1f ns/coup | MoveCodec.decode : %6.1f ns/coup (x%.0f) [%d]%n",
+                        translateNs, codecNs, translateNs / codecNs, hash % 10);
+            }
+        }
+    }
+
+    /**
+     * Coût de la sélection des topN coups sur une sortie politique [N,4672] : tri complet (Nd4j.sortWithIndices)
+     * contre sélection partielle (TopK.selectRows). Les deux résultats sont comparés sur le premier passage.
+     */
+    public static void benchmarkTopK(int rows, int topN, int repeats) {
+        Random random = new Random(3);
+        float[][] data = new float[rows][MoveCodec.POLICY_SIZE];
+        for (float[] row : data) {
+            for (int i = 0; i < row.length; i++) row[i] = random.nextFloat();
+        }
+        INDArray policy = Nd4j.create(data);
+        int[][] indices = new int[rows][topN];
+        float[][] values = new float[rows][topN];
+
+        for (int round = 0; round < 2; round++) { //le premier tour sert d'échauffement
+            long start = System.nanoTime();
+            INDArray[] sorted = null;
+            for (int r = 0; r < repeats; r++) {
+                sorted = Nd4j.sortWithIndices(policy.dup(), 1, false);
+            }
+            double sortUs = (System.nanoTime() - start) / 1e3 / repeats;
+
+            start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                TopK.selectRows(policy.toFloatMatrix(), topN, indices, values);
+            }
+            double topKUs = (System.nanoTime() - start) / 1e3 / repeats;
+
+            if (round == 0) {
+                for (int row = 0; row < rows; row++) {
+                    for (int i = 0; i < topN; i++) {
+                        if (sorted[0].getInt(row, i) != indices[row][i]) {
+                            System.out.println("Erreur : ligne " + row + ", rang " + i + " : " + sorted[0].getInt(row, i) + " != " + indices[row][i]);
+                        }
+                    }
+                }
+            } else {
+                System.out.printf("[%d,4672] top-%d : sortWithIndices %8.1f µs | TopK %8.1f µs (x%.1f)%n",
+                        rows, topN, sortUs, topKUs, sortUs / topKUs);
+            }
+        }
+    }
+
+    /**
+     * Nombre d'appels au réseau économisés par le cache des évaluations sur des recherches de milieu de partie
+     * (transpositions dans l'arbre et racine déjà évaluée).
+     */
+    public static void benchmarkTranspositionTable(ChessModelInterpreter interpreter, int simulations) {
+        EvaluationCache cache = interpreter.getCache();
+        for (String fen : FENS) {
+            cache.clear();
+            MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, simulations, 10);
+            mcts.startMCTS(fen, SearchLimits.nodes(simulations).withEarlyStop(false));
+            System.out.printf("%s%n  hits = %d | misses = %d | taux = %.1f %%%n",
+                    fen, cache.getHits(), cache.getMisses(), 100 * cache.getHitRate());
+        }
+    }
+
+    /**
+     * Débit de l'analyse par lot (analyseFens, un appel au réseau par paquet) contre l'analyse position par position,
+     * cache des évaluations désactivé pour ne mesurer que l'encodage et le réseau.
+     * Vérifie aussi que les deux chemins donnent les mêmes valeurs et les mêmes coups.
+     */
+    public static void benchmarkBatchAnalysis(ChessModelInterpreter interpreter, List<String> fens, int[] chunks) {
+        EvaluationCache cache = interpreter.getCache();
+        interpreter.setCache(null);
+        int warmup = Math.min(64, fens.size());
+        for (int i = 0; i < warmup; i++) interpreter.analyse(fens.get(i), 10);
+
+        long start = System.nanoTime();
+        List<Analysis> single = new ArrayList<>(fens.size());
+        for (String fen : fens) single.add(interpreter.analyse(fen, 10));
+        double singleSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("une position par appel : %8.1f positions/s%n", fens.size() / singleSeconds);
+
+        for (int chunk : chunks) {
+            interpreter.setBatchChunk(chunk);
+            interpreter.analyseFens(fens.subList(0, Math.min(chunk, fens.size())), 10); //échauffement
+            start = System.nanoTime();
+            List<Analysis> batch = interpreter.analyseFens(fens, 10);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            float maxDiff = 0;
+            int moveMismatches = 0;
+            for (int i = 0; i < fens.size(); i++) {
+                maxDiff = Math.max(maxDiff, Math.abs(single.get(i).getValue() - batch.get(i).getValue()));
+                if (!Objects.equals(single.get(i).getBest_move(), batch.get(i).getBest_move())) moveMismatches++;
+            }
+            System.out.printf("paquets de %4d : %8.1f positions/s (x%.1f) | écart max des valeurs %.2e | coups différents %d%n",
+                    chunk, fens.size() / seconds, singleSeconds / seconds, maxDiff, moveMismatches);
+        }
+        interpreter.setCache(cache);
+    }
+
+    /**
+     * Le cache des évaluations sur le schéma d'appel de l'interface (coup puis évaluation de la même position,
+     * puis makeMoveWithMCTS dont la racine est déjà évaluée), puis avec une petite capacité pour observer les évictions.
+     */
+    public static void benchmarkEvaluationCache(ChessModelInterpreter interpreter, int simulations) {
+        for (int capacity : new int[]{1 << 15, 256}) {
+            interpreter.setCache(new EvaluationCache(capacity, 32));
+            MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(interpreter, simulations, 10, 8);
+            long start = System.nanoTime();
+            for (String fen : FENS) {
+                interpreter.makeMove(fen);
+                interpreter.evaluate(fen);
+                interpreter.makeMoveWithMCTS(fen, mcts, SearchLimits.nodes(simulations).withEarlyStop(false));
+                interpreter.evaluate(fen);
+            }
+            double millis = (System.nanoTime() - start) / 1e6;
+            EvaluationCache cache = interpreter.getCache();
+            System.out.printf("capacité %6d : %.0f ms | hits = %d | misses = %d | taux = %.1f %% | évictions = %d | entrées = %d%n",
+                    cache.getCapacity(), millis, cache.getHits(), cache.getMisses(), 100 * cache.getHitRate(),
+                    cache.getEvictions(), cache.size());
+        }
+    }
+}
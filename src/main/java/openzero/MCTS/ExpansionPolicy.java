@@ -0,0 +1,90 @@
+package openzero.MCTS;
+
+import lombok.Getter;
+
+/**
+ * Nombre d'enfants créés pour un noeud, dans l'ordre décroissant des probabilités a priori :
+ * <ul>
+ *     <li>FIXED : les topN premiers coups, créés à l'expansion (comportement historique) ;</li>
+ *     <li>VISITS : élargissement progressif, initial + factor * visites^exponent enfants, ajoutés au fil des visites du noeud ;</li>
+ *     <li>MASS : les premiers coups jusqu'à atteindre une masse de probabilité cumulée (threshold).</li>
+ * </ul>
+ * Les positions calmes avec un coup dominant créent peu d'enfants, les positions tactiques en créent davantage.
+ */
+@Getter
+public class ExpansionPolicy {
+    public enum Mode {FIXED, VISITS, MASS}
+
+    private final Mode mode;
+    private final int max_children; //plafond d'enfants par noeud
+    private final int initial; //VISITS : enfants créés à l'expansion
+    private final float factor; //VISITS : coefficient de l'élargissement
+    private final float exponent; //VISITS : exposant de l'élargissement (0.5 = racine carrée des visites)
+    private final float threshold; //MASS : masse de probabilité cumulée à couvrir
+
+    private ExpansionPolicy(Mode mode, int max_children, int initial, float factor, float exponent, float threshold) {
+        this.mode = mode;
+        this.max_children = max_children;
+        this.initial = initial;
+        this.factor = factor;
+        this.exponent = exponent;
+        this.threshold = threshold;
+    }
+
+    public static ExpansionPolicy fixed(int topN) {
+        return new ExpansionPolicy(Mode.FIXED, topN, topN, 0, 0, 1);
+    }
+
+    public static ExpansionPolicy visits(int initial, float factor, float exponent, int max_children) {
+        return new ExpansionPolicy(Mode.VISITS, max_children, initial, factor, exponent, 1);
+    }
+
+    public static ExpansionPolicy mass(float threshold, int max_children) {
+        return new ExpansionPolicy(Mode.MASS, max_children, 1, 0, 0, threshold);
+    }
+
+    /**
+     * @return true si des enfants peuvent être ajoutés après l'expansion
+     */
+    public boolean isProgressive() {
+        return mode == Mode.VISITS;
+    }
+
+    /**
+     * @param visits les visites du noeud
+     * @param priors les probabilités des coups légaux gardés (décroissant)
+     * @return le nombre d'enfants autorisés pour ce noeud
+     */
+    public int allowedChildren(float visits, float[] priors) {
+        int available = Math.min(priors.length, max_children);
+        int allowed;
+        switch (mode) {
+            case VISITS:
+                allowed = initial + (int) (factor * Math.pow(visits, exponent));
+                break;
+            case MASS:
+                float mass = 0;
+                allowed = 0;
+                while (allowed < available && mass < threshold) {
+                    mass += priors[allowed];
+                    allowed++;
+                }
+                break;
+            default:
+                allowed = max_children;
+        }
+        return Math.max(1, Math.min(allowed, available));
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+            case VISITS:
+                return "visits(" + initial + " + " + factor + " * n^" + exponent + ", max " + max_children + ")";
+            case MASS:
+                return "mass(" + threshold + ", max " + max_children + ")";
+            default:
+                return "fixed(" + max_children + ")";
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package openzero.MCTS;
+
+import lombok.Getter;
+
+import java.util.Random;
+
+/**
+ * Paramètres de la recherche Gumbel à la racine (Danihelka et al., "Policy improvement by planning with Gumbel"),
+ * pour jouer avec très peu de simulations (16-32 par coup) :
+ * <ul>
+ *     <li>les considered coups candidats sont tirés sans remise par Gumbel top-k sur log(prior) ;</li>
+ *     <li>le budget est réparti par élimination successive (sequential halving) : à chaque phase,
+ *     chaque candidat reçoit le même nombre de simulations puis la moitié la moins bonne est écartée ;</li>
+ *     <li>le coup joué est le candidat restant qui maximise g + log(prior) + sigma(Q complété).</li>
+ * </ul>
+ * Sous la racine, la sélection PUCT habituelle est conservée.
+ */
+@Getter
+public class GumbelRoot {
+    private final int considered; //nombre de coups candidats à la racine (m)
+    private final float c_visit; //sigma(q) = (c_visit + max des visites) * c_scale * q
+    private final float c_scale;
+    private final boolean noise; //tirage de Gumbel (false : g = 0, choix déterministe)
+    private final Random random;
+
+    public GumbelRoot() {
+        this(16, 50, 1, true, new Random());
+    }
+
+    public GumbelRoot(int considered, float c_visit, float c_scale, boolean noise, Random random) {
+        this.considered = considered;
+        this.c_visit = c_visit;
+        this.c_scale = c_scale;
+        this.noise = noise;
+        this.random = random;
+    }
+
+    /**
+     * @return un tirage de la loi de Gumbel(0, 1), ou 0 sans bruit
+     */
+    public float sampleGumbel() {
+        if (!noise) return 0;
+        double u = random.nextDouble();
+        while (u == 0) u = random.nextDouble();
+        return (float) -Math.log(-Math.log(u));
+    }
+
+    /**
+     * @param q la valeur d'un coup pour le joueur qui le choisit, entre -1 et 1
+     * @param max_visits le nombre de visites du candidat le plus visité
+     * @return la transformation monotone sigma(q) ajoutée aux logits
+     */
+    public float sigma(float q, float max_visits) {
+        return (c_visit + max_visits) * c_scale * (q + 1) / 2;
+    }
+
+    @Override
+    public String toString() {
+        return "gumbel(m=" + considered + ", c_visit=" + c_visit + ", c_scale=" + c_scale + (noise ? "" : ", sans bruit") + ")";
+    }
+}
@@ -2,288 +2,1181 @@ package openzero.MCTS;
 
 import com.github.bhlangonijr.chesslib.Board;
 import com.github.bhlangonijr.chesslib.Side;
+import com.github.bhlangonijr.chesslib.move.Move;
 import lombok.Getter;
 import lombok.Setter;
 import openzero.utils.ChessModelInterpreter;
+import openzero.utils.EvaluationCache;
+import openzero.utils.InferenceService;
+import openzero.utils.LegalPolicy;
+import openzero.utils.TopK;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-
-import static java.lang.Math.sqrt;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 @Getter
 @Setter
 public class MonteCarloTreeSearch {
+    private static final ThreadLocal<SearchPath> PATHS = ThreadLocal.withInitial(SearchPath::new); //chemin réutilisé par chaque thread de recherche
+    private static final Node BACKPROPAGATED = new Node(null, null, -1, 0, false); //descend() : simulation terminée sur un état final
     private final ChessModelInterpreter chessModelInterpreter;
-    private Board board;
+    private Board board; //plateau de la racine (utilisé aussi par le thread appelant pour jouer/déjouer les coups)
+    private String rootFen;
     private Node root;
     private Node lastNodePlayed;
     private int simulations;
     private final int topN;
-
+    private int batchSize; //nombre de feuilles évaluées ensemble par le réseau (1 = une évaluation par simulation)
+    private int threads; //nombre de threads qui parcourent l'arbre en parallèle
+    private boolean useCache = true; //lit et enregistre les évaluations dans le cache de l'interpréteur (transpositions, racine déjà évaluée)
+    private ExpansionPolicy expansionPolicy; //nombre d'enfants par noeud (topN fixe par défaut)
+    private boolean solver = true; //prouve les gains, pertes et nulles forcés et les fait remonter dans l'arbre
+    private GumbelRoot gumbelRoot; //recherche Gumbel à la racine (null : PUCT à la racine comme dans le reste de l'arbre)
+    private Node rootChoice; //coup choisi à la racine par la recherche Gumbel (null sinon)
+    private InferenceService pipeline; //évaluation asynchrone des feuilles par le service (null : le thread de recherche attend chaque lot)
+    private final AtomicLong treeNanos = new AtomicLong(); //mode pipeline : temps passé par les threads de recherche dans l'arbre
+    private final AtomicLong waitNanos = new AtomicLong(); //mode pipeline : temps passé à attendre un résultat du réseau
+    private int maxNodes; //taille maximale de l'arbre en noeuds (0 = pas de limite)
+    private NodePool nodePool; //réserve des noeuds recyclés (null sans limite de taille)
+    private final ReentrantReadWriteLock treeLock = new ReentrantReadWriteLock(); //avec une limite de taille : les threads de recherche (lecture) contre le repli (écriture)
+    private long collapsedNodes; //noeuds rendus à la réserve par les replis
+    private volatile SearchStats.Counters counters = new SearchStats.Counters(); //compteurs de la recherche en cours
+    private long cacheHitsStart; //compteurs du cache des évaluations au début de la recherche
+    private long cacheMissesStart;
+    private Consumer<SearchStats> statsListener; //appelé périodiquement pendant la recherche (null : aucun)
+    private long statsIntervalNanos;
+    private final AtomicLong nextReport = new AtomicLong(); //prochaine date d'appel du listener (System.nanoTime)
+    private SearchLimits limits; //limites de la recherche en cours
+    private volatile boolean stopRequested; //positionné par stop() depuis un autre thread
+    private long searchStart; //début de la recherche en cours (System.nanoTime)
+    private long deadline; //fin de la recherche en cours (System.nanoTime), Long.MAX_VALUE sans limite de temps
+    private final AtomicInteger completed = new AtomicInteger(); //simulations terminées pendant la recherche en cours
+    private Thread ponderThread; //recherche pendant le temps de l'adversaire (null si aucune)
+    private boolean pondered; //vrai si une réflexion a eu lieu depuis la dernière recherche
+    private int ponderHits; //l'adversaire a joué un coup déjà présent dans l'arbre de la réflexion
+    private int ponderMisses; //l'arbre de la réflexion n'a pas pu être réutilisé
+    private long ponderSavedSimulations; //visites ajoutées pendant la réflexion et reprises par les recherches suivantes
+    private Node ponderRoot; //racine de la dernière réflexion
+    private final Map<Node, Float> ponderStartVisits = new IdentityHashMap<>(); //visites des enfants de ponderRoot au début de la réflexion
 
     public MonteCarloTreeSearch(ChessModelInterpreter chessModelInterpreter, int simulations, int topN) {
+        this(chessModelInterpreter, simulations, topN, 1);
+    }
+
+    public MonteCarloTreeSearch(ChessModelInterpreter chessModelInterpreter, int simulations, int topN, int batchSize) {
+        this(chessModelInterpreter, simulations, topN, batchSize, 1);
+    }
+
+    public MonteCarloTreeSearch(ChessModelInterpreter chessModelInterpreter, int simulations, int topN, int batchSize, int threads) {
         this.chessModelInterpreter = chessModelInterpreter;
         this.simulations = simulations;
         this.topN = topN;
+        this.expansionPolicy = ExpansionPolicy.fixed(topN);
+        this.batchSize = batchSize;
+        this.threads = threads;
         this.lastNodePlayed = null;
         this.root = null;
     }
 
+    /**
+     * Borne la taille de l'arbre (à régler entre deux recherches). Au-delà, les enfants des noeuds les moins visités
+     * sont repliés dans les statistiques d'arêtes de leur parent jusqu'à revenir aux trois quarts de la limite ;
+     * les enfants de la racine ne sont jamais repliés.
+     * @param maxNodes le nombre maximum de noeuds (0 = pas de limite)
+     */
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+        this.nodePool = maxNodes > 0 ? new NodePool(maxNodes / 2) : null;
+    }
+
+    /**
+     * @return le nombre de noeuds de l'arbre (compté en continu avec une limite de taille, parcouru sinon)
+     */
+    public int getLiveNodes() {
+        return this.nodePool != null ? this.nodePool.getLive() : treeSize();
+    }
+
+    /**
+     * @return le nombre de noeuds repris dans la réserve au lieu d'être alloués
+     */
+    public long getReusedNodes() {
+        return this.nodePool != null ? this.nodePool.getReused() : 0;
+    }
+
+    /**
+     * Appelle listener avec une photographie des statistiques au plus toutes les intervalMillis pendant la recherche,
+     * et une dernière fois à la fin de chaque recherche. Le listener est appelé depuis un thread de recherche.
+     * @param listener le listener (null pour le retirer)
+     */
+    public void setStatsListener(Consumer<SearchStats> listener, long intervalMillis) {
+        this.statsIntervalNanos = intervalMillis * 1_000_000L;
+        this.statsListener = listener;
+    }
+
+    /**
+     * @return les statistiques de la recherche en cours (ou de la dernière), utilisable depuis n'importe quel thread
+     */
+    public SearchStats getStats() {
+        List<String> moves = new ArrayList<>();
+        List<Integer> visits = new ArrayList<>();
+        int nodes;
+        lockTree(); //les noeuds ne sont pas recyclés pendant la lecture
+        try {
+            Node node = this.root;
+            while (node != null && moves.size() < 64) {
+                Node best = null;
+                for (Node child : node.getChildren_nodes()) {
+                    if (best == null || child.getVisit_count() > best.getVisit_count()) best = child;
+                }
+                if (best == null || best.getVisit_count() == 0 || best.getMove_played() == null) break;
+                moves.add(best.getMove_played().toString());
+                visits.add((int) best.getVisit_count());
+                node = best;
+            }
+            nodes = getLiveNodes();
+        } finally {
+            unlockTree();
+        }
+        int[] principal_visits = new int[visits.size()];
+        for (int i = 0; i < principal_visits.length; i++) principal_visits[i] = visits.get(i);
+        EvaluationCache cache = cache();
+        long hits = cache == null ? 0 : cache.getHits() - this.cacheHitsStart;
+        long misses = cache == null ? 0 : cache.getMisses() - this.cacheMissesStart;
+        return new SearchStats(this.counters, this.completed.get(), hits, misses, nodes, moves, principal_visits);
+    }
+
+    /**
+     * Appelle le listener si l'intervalle est écoulé (un seul thread gagne la CAS), ou toujours si force.
+     */
+    private void reportStats(boolean force) {
+        Consumer<SearchStats> listener = this.statsListener;
+        if (listener == null) return;
+        long now = System.nanoTime();
+        long next = this.nextReport.get();
+        if (!force && (now < next || !this.nextReport.compareAndSet(next, now + this.statsIntervalNanos))) return;
+        listener.accept(getStats());
+    }
+
+    /**
+     * Ajoute à une phase le temps écoulé depuis start.
+     * @return la date courante, début de la phase suivante
+     */
+    private static long lap(LongAdder phase, long start) {
+        long now = System.nanoTime();
+        phase.add(now - start);
+        return now;
+    }
+
+    /**
+     * Recherche d'exactement simulations simulations, sans arrêt anticipé (comportement d'avant SearchLimits).
+     */
     public INDArray[] startMCTS(String fen) {
+        return startMCTS(fen, SearchLimits.nodes(simulations).withEarlyStop(false));
+    }
+
+    /**
+     * Lance une recherche depuis la position donnée, jusqu'à ce qu'une des limites soit atteinte
+     * (ou que stop() soit appelé depuis un autre thread).
+     * @param fen la position racine
+     * @param limits les conditions d'arrêt
+     * @return les indices des coups de la racine et leur fréquence de visite
+     */
+    public INDArray[] startMCTS(String fen, SearchLimits limits) {
+        stopPondering();
+        this.stopRequested = false;
+        INDArray[] mctsSoftmax = search(fen, limits);
+        return mctsSoftmax;
+    }
+
+    private INDArray[] search(String fen, SearchLimits limits) {
         this.board = new Board();
         this.board.loadFromFen(fen);
-        this.root = new Node(null,fen,-1, true);
+        this.rootFen = fen;
+        this.root = reuseTree(this.board.getZobristKey());
+        if (Thread.currentThread() == this.ponderThread) {
+            //début de la réflexion : les visites déjà présentes viennent de notre propre recherche
+            this.ponderRoot = this.root;
+            this.ponderStartVisits.clear();
+            for (Node child : this.root.getChildren_nodes()) this.ponderStartVisits.put(child, child.getVisit_count());
+        } else if (this.pondered) {
+            //première recherche après une réflexion : seules les visites ajoutées en réfléchissant comptent
+            this.pondered = false;
+            long saved = 0;
+            if (this.ponderRoot != null && this.ponderRoot.getChildren_nodes().contains(this.root)) {
+                saved = (long) (this.root.getVisit_count() - this.ponderStartVisits.getOrDefault(this.root, 0f));
+            }
+            if (saved > 0) {
+                this.ponderHits++;
+                this.ponderSavedSimulations += saved;
+            } else {
+                this.ponderMisses++;
+            }
+            this.ponderRoot = null;
+            this.ponderStartVisits.clear();
+        }
+        if (this.nodePool != null) this.nodePool.setLive(treeSize());
+        this.limits = limits;
+        this.rootChoice = null;
+        this.counters = new SearchStats.Counters();
+        EvaluationCache cache = cache();
+        if (cache != null) {
+            this.cacheHitsStart = cache.getHits();
+            this.cacheMissesStart = cache.getMisses();
+        }
+        this.nextReport.set(System.nanoTime() + this.statsIntervalNanos);
+        this.completed.set(0);
+        this.treeNanos.set(0);
+        this.waitNanos.set(0);
+        this.searchStart = System.nanoTime();
+        this.deadline = limits.hasTimeLimit() ? this.searchStart + limits.getTime_millis() * 1_000_000L : Long.MAX_VALUE;
 
-        int i = 0;
-        while (i < simulations) {
-            selection(this.root);
-            //System.out.println("simulations "+i);
-            i++;
+        //les visites déjà présentes dans le sous-arbre réutilisé comptent dans le budget
+        int nodeBudget = limits.nodeBudget();
+        int budget = nodeBudget == Integer.MAX_VALUE ? nodeBudget : Math.max(nodeBudget - (int) this.root.getVisit_count(), 0);
+        if (gumbelRoot != null) {
+            //la répartition par élimination successive a besoin d'un budget fini
+            searchGumbel(budget == Integer.MAX_VALUE ? simulations : budget);
+        } else if (threads > 1 || pipeline != null) {
+            searchParallel(budget);
+        } else {
+            int i = 0;
+            while (i < budget && !shouldStop(budget - i)) {
+                int done;
+                if (batchSize <= 1) {
+                    done = selection(this.root, this.board) ? 1 : 0;
+                    //System.out.println("simulations "+i);
+                } else {
+                    done = selectionBatch(this.root, Math.min(batchSize, budget - i), this.board);
+                }
+                //seul sur l'arbre, une descente abandonnée reprendrait le même chemin : inutile d'insister
+                if (done == 0) break;
+                i += done;
+                this.completed.addAndGet(done);
+                enforceMemoryCap();
+                reportStats(false);
+            }
         }
+        this.counters.finish();
+        reportStats(true);
         INDArray[] mctsSoftmax = argsortMCTS(this.root);
         return mctsSoftmax;
     }
 
+    /**
+     * Demande l'arrêt de la recherche en cours (les simulations en vol se terminent normalement).
+     */
+    public void stop() {
+        this.stopRequested = true;
+    }
+
+    /**
+     * Réflexion pendant le temps de l'adversaire : continue la recherche en arrière-plan depuis la position
+     * après notre coup, en gardant l'arbre. Quand l'adversaire joue, la recherche suivante reprend le sous-arbre
+     * de son coup s'il a été exploré (ponder hit), sinon repart d'un arbre neuf (ponder miss).
+     * @param fen la position après notre coup (l'adversaire au trait)
+     * @param limits les limites de la réflexion (en général infinite() ou un plafond de noeuds pour borner la mémoire)
+     */
+    public void startPondering(String fen, SearchLimits limits) {
+        stopPondering();
+        this.stopRequested = false;
+        this.pondered = true;
+        this.ponderThread = new Thread(() -> search(fen, limits), "mcts-ponder");
+        this.ponderThread.setDaemon(true);
+        this.ponderThread.start();
+    }
 
-    public void selection(Node current_node) {
-        //on parcourt les enfants du noeud en fonction du score UCT de chacun
-        //si on arrive sur un noeud inexploré ou qui n'a pas d'enfant, expansion
-        Node leaf = current_node.selectChild();
-        expansion(leaf);
+    /**
+     * Arrête la réflexion en cours et attend la fin de ses simulations. Sans effet si aucune réflexion n'est lancée.
+     */
+    public void stopPondering() {
+        Thread thread = this.ponderThread;
+        if (thread == null) return;
+        stop();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.ponderThread = null;
     }
 
-    public void expansion(Node leaf) {
-        //soit le noeud est inexploré, et on l'explore (on évalue sa position et on la retourne par backpropagating)
-        //soit il a déjà été exploré, et dans ce cas là on l'étend en calculant ses enfants, et on explore un de ses enfants (puis backpropation)
-        if(leaf.isFinal_state()) {
-            leaf.incrementVisitCount();
-            backpropagation(leaf);
-        }
-        else if(leaf.getVisit_count() == 0) { //Si le noeud est inexploré
-            exploration(leaf);
-            leaf.incrementVisitCount();
-            backpropagation(leaf);
-        } else if (leaf.getChildren_nodes().isEmpty() && leaf.getEvaluation() != 0) { //Si le noeud est exploré mais n'a pas d'enfants et n'est pas un état final
-            for(int i = 0; i< leaf.getSortedSoftmax()[0].length(); i++) {
-                //on crée tous ses gosses en fonction de son vecteur softmax
-                String orignal_fen = leaf.getFen(); //on prend la position de départ du noeud feuille
-                INDArray orignal_tensor = this.chessModelInterpreter.FenToTensor(orignal_fen); //on le convertit en tenseur
-                int move_index = leaf.getSortedSoftmax()[0].getInt(i); //on récupère le i-ème move_index pour le i-ème noeud enfant
-                String move = this.chessModelInterpreter.translateMoves(move_index,orignal_tensor); //on le traduit en string
-                Board board = new Board();
-                board.loadFromFen(orignal_fen);
-                if(board.legalMoves().toString().contains(move)) { //Si le coup est légal
-                    board.doMove(move); //on applique le move au board pour récupérer le nouveau fen
-                    String new_fen = board.getFen();
-                    leaf.addChildNode(createChild(leaf,new_fen,move_index,!leaf.isActive_turn())); //on ajoute l'enfant créé à la feuille
+    public double getPonderHitRate() {
+        int total = this.ponderHits + this.ponderMisses;
+        return total == 0 ? 0 : (double) this.ponderHits / total;
+    }
+
+    /**
+     * @param remainingNodes les simulations encore autorisées par la limite de noeuds
+     * @return true si la recherche doit s'arrêter
+     */
+    private boolean shouldStop(int remainingNodes) {
+        if (this.stopRequested) return true;
+        if (this.root.isProven()) return true; //résultat de la racine prouvé : plus rien à chercher
+        if (this.limits.isInfinite()) return false;
+        long now = System.nanoTime();
+        if (now >= this.deadline) return true;
+        if (!this.limits.isEarly_stop()) return false;
+
+        //simulations encore possibles : limite de noeuds, et estimation d'après la vitesse actuelle si le temps est limité
+        long remaining = remainingNodes;
+        if (this.deadline != Long.MAX_VALUE) {
+            int done = this.completed.get();
+            if (done == 0) return false;
+            double perNano = done / (double) (now - this.searchStart);
+            remaining = Math.min(remaining, (long) (perNano * (this.deadline - now)));
+        }
+        return bestMoveIsDecided(remaining);
+    }
+
+    /**
+     * Limites qui arrêtent aussi la recherche Gumbel : stop(), racine prouvée, temps écoulé.
+     */
+    private boolean hardStop() {
+        return this.stopRequested || this.root.isProven() || System.nanoTime() >= this.deadline;
+    }
+
+    /**
+     * Le coup le plus visité de la racine ne peut plus être dépassé si son avance en visites
+     * est supérieure au nombre de simulations restantes (ou s'il est le seul coup).
+     */
+    private boolean bestMoveIsDecided(long remaining) {
+        if (!this.root.isExpanded() || this.root.getVisit_count() < 2) return false;
+        if (this.root.getLegal_moves().length == 1) return true;
+        List<Node> children = this.root.getChildren_nodes();
+        float best = 0;
+        float second = 0;
+        for (int i = 0; i < children.size(); i++) {
+            float visits = children.get(i).getVisit_count();
+            if (visits > best) {
+                second = best;
+                best = visits;
+            } else if (visits > second) {
+                second = visits;
+            }
+        }
+        return best - second > remaining;
+    }
+
+    /**
+     * Reprend l'arbre de la recherche précédente quand c'est possible : si la position est celle de la racine,
+     * d'un enfant (réflexion depuis la position après notre coup, puis réponse adverse) ou d'un petit-enfant
+     * (notre coup puis la réponse adverse), ce noeud devient la nouvelle racine.
+     * Son parent est détaché pour que le reste de l'ancien arbre soit libéré par le GC.
+     * @param key la clé Zobrist de la position à rechercher
+     * @return la racine de la nouvelle recherche
+     */
+    public Node reuseTree(long key) {
+        if (this.root != null) {
+            if (this.root.getZobrist_key() == key) return this.root;
+            Node child_match = searchChildByKey(this.root, key);
+            if (child_match != null) {
+                child_match.setParent_node(null);
+                this.lastNodePlayed = child_match;
+                return child_match;
+            }
+            for (Node child : this.root.getChildren_nodes()) {
+                Node grandchild = searchChildByKey(child, key);
+                if (grandchild != null) {
+                    grandchild.setParent_node(null);
+                    this.lastNodePlayed = grandchild;
+                    return grandchild;
                 }
             }
-            if(leaf.getChildren_nodes().isEmpty()) {
-                //debuggage (SI AUCUN COUPS LEGAUX DANS LE TOPN)
-                String fen = leaf.getFen();
-                INDArray tensor = this.chessModelInterpreter.FenToTensor(fen);
-                INDArray[] output = this.chessModelInterpreter.model.output(false, new INDArray[]{tensor}, null, null, null);
-                INDArray valueOutput = output[0];
-                INDArray policyOutput = output[1];
-                INDArray[] sortedSoftmax = this.chessModelInterpreter.argsort(policyOutput, 4672);
-                for(int j=0; j< sortedSoftmax[0].length();j++) {
-                    String move = this.chessModelInterpreter.translateMoves(sortedSoftmax[0].getInt(j),tensor);
-                    if(board.legalMoves().toString().contains(move)) {
-                        board.doMove(move); //on applique le move au board pour récupérer le nouveau fen
-                        String new_fen = board.getFen();
-                        leaf.addChildNode(createChild(leaf,new_fen,sortedSoftmax[0].getInt(j),!leaf.isActive_turn())); //on ajoute l'enfant créé à la feuille
-                        break;
+        }
+        this.lastNodePlayed = null;
+        Node newRoot = new Node(null,null,-1, 1f, true);
+        newRoot.setZobrist_key(key);
+        return newRoot;
+    }
+
+    /**
+     * Recherche parallèle sur un arbre partagé : chaque thread descend depuis la racine,
+     * la perte virtuelle les répartit sur des chemins différents.
+     * Avec un pipeline, les threads ne s'arrêtent pas pendant l'inférence (voir runPipelinedWorker()) ; un seul thread suffit alors.
+     * @param budget le nombre de simulations à répartir entre les threads
+     */
+    public void searchParallel(int budget) {
+        AtomicInteger remaining = new AtomicInteger(budget);
+        Thread[] workers = new Thread[threads - 1];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread(() -> runWorker(remaining, newRootBoard()), "mcts-worker-" + t);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+        runWorker(remaining, this.board); //le thread appelant travaille aussi
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runWorker(AtomicInteger remaining, Board workerBoard) {
+        if (this.pipeline != null) {
+            runPipelinedWorker(remaining, workerBoard);
+            return;
+        }
+        while (true) {
+            int available = remaining.get();
+            if (available <= 0 || shouldStop(available)) return;
+            int taken = Math.min(batchSize, available);
+            if (!remaining.compareAndSet(available, available - taken)) continue;
+            lockTree();
+            int done;
+            try {
+                done = selectionBatch(this.root, taken, workerBoard);
+            } finally {
+                unlockTree();
+            }
+            this.completed.addAndGet(done);
+            enforceMemoryCap();
+            reportStats(false);
+            if (done < taken) remaining.addAndGet(taken - done); //on rend les simulations non consommées
+        }
+    }
+
+    /**
+     * Boucle d'un thread de recherche en mode pipeline : il garde jusqu'à batchSize feuilles en vol.
+     * Tant que la fenêtre n'est pas pleine il descend dans l'arbre et dépose de nouvelles feuilles dans le service d'inférence ;
+     * sinon il attend la plus ancienne, l'applique et la rétropropage. La perte virtuelle des feuilles en vol
+     * écarte les descentes suivantes de leurs chemins.
+     */
+    private void runPipelinedWorker(AtomicInteger remaining, Board workerBoard) {
+        ArrayDeque<PendingLeaf> inFlight = new ArrayDeque<>();
+        int window = Math.max(1, batchSize);
+        while (true) {
+            boolean collision = false;
+            if (inFlight.size() < window && takeSimulation(remaining)) {
+                long start = System.nanoTime();
+                lockTree();
+                try {
+                    Node leaf = descend(this.root, workerBoard);
+                    if (leaf == BACKPROPAGATED) {
+                        this.completed.incrementAndGet(); //état final déjà rétropropagé
+                    } else if (leaf == null) {
+                        //descente abandonnée (expansion en cours dans un autre thread) : on rend la simulation
+                        remaining.incrementAndGet();
+                        collision = true;
+                    } else {
+                        int depth = PATHS.get().size() - 1;
+                        if (!leaf.tryClaim()) {
+                            //feuille déjà en vol : on rend la simulation et on attend un résultat avant de redescendre
+                            revertVisits(leaf);
+                            remaining.incrementAndGet();
+                            collision = true;
+                        } else {
+                            leaf.addVirtualLoss();
+                            long prepare = System.nanoTime();
+                            if (evaluateWithoutNetwork(leaf, workerBoard)) {
+                                lap(this.counters.expansion_nanos, prepare);
+                                finishSimulation(leaf);
+                                this.completed.incrementAndGet();
+                            } else {
+                                PendingLeaf pending = new PendingLeaf(leaf, workerBoard.getSideToMove(), null, LegalPolicy.fromBoard(workerBoard));
+                                pending.result = this.pipeline.submit(workerBoard); //encodée directement, sans tenseur intermédiaire
+                                inFlight.add(pending);
+                                lap(this.counters.expansion_nanos, prepare);
+                            }
+                        }
+                        undoMoves(workerBoard, depth);
                     }
+                } finally {
+                    unlockTree();
+                }
+                this.treeNanos.addAndGet(System.nanoTime() - start);
+                if (!collision) continue;
+            }
+            if (inFlight.isEmpty()) {
+                if (collision) {
+                    Thread.yield(); //la feuille est en vol dans un autre thread
+                    continue;
                 }
+                return;
             }
-            //et on évalue l'un de ses gosses
-            Node child_leaf = leaf.selectChild();
-            //System.out.println(child_leaf.getFen());
-            expansion(child_leaf);
+            PendingLeaf oldest = inFlight.poll();
+            long start = System.nanoTime();
+            InferenceService.Result result;
+            try {
+                result = oldest.result.join();
+            } catch (RuntimeException e) {
+                //réseau en échec ou service fermé : les feuilles en vol ne seront jamais évaluées
+                lockTree();
+                try {
+                    abandonLeaf(oldest.node);
+                    for (PendingLeaf leaf : inFlight) abandonLeaf(leaf.node);
+                } finally {
+                    unlockTree();
+                }
+                inFlight.clear();
+                throw e;
+            }
+            long evaluated = lap(this.counters.inference_nanos, start);
+            this.waitNanos.addAndGet(evaluated - start);
+            this.counters.nn_evaluations.increment();
+            lockTree();
+            try {
+                applyNetworkOutput(oldest, result.value, result.policy);
+                lap(this.counters.expansion_nanos, evaluated);
+                finishSimulation(oldest.node);
+            } finally {
+                unlockTree();
+            }
+            this.completed.incrementAndGet();
+            this.treeNanos.addAndGet(System.nanoTime() - evaluated);
+            enforceMemoryCap();
+            reportStats(false);
         }
     }
 
-    public void exploration(Node node) {
-        String fen = node.getFen();
-        INDArray tensor = this.chessModelInterpreter.FenToTensor(fen);
-        INDArray[] output = this.chessModelInterpreter.model.output(false, new INDArray[]{tensor}, null, null, null);
-        INDArray valueOutput = output[0];
-        INDArray policyOutput = output[1];
-        INDArray[] sortedSoftmax = this.chessModelInterpreter.argsort(policyOutput, topN);
-        Board board = new Board();
-        board.loadFromFen(fen);
+    /**
+     * Retire de l'arbre une feuille réservée qui ne sera pas évaluée : perte virtuelle, visites du chemin et réservation.
+     */
+    private void abandonLeaf(Node leaf) {
+        leaf.removeVirtualLoss();
+        revertVisits(leaf);
+        leaf.release();
+    }
 
-        Side side = board.getSideToMove();
-        node.setEvaluation(valueOutput.getFloat(0,0));
-        if(side.value().equals("BLACK"))
-            node.setEvaluation(-1 * valueOutput.getFloat(0,0));
-        node.setSortedSoftmax(sortedSoftmax);
-        node.setFinal_state(board.isMated() || board.isDraw() || board.isStaleMate());
-        if (!node.isFinal_state()) {
-            node.addTotalEvaluation(node.getEvaluation());
+    private void lockTree() {
+        if (this.nodePool != null) this.treeLock.readLock().lock();
+    }
+
+    private void unlockTree() {
+        if (this.nodePool != null) this.treeLock.readLock().unlock();
+    }
+
+    /**
+     * Si l'arbre dépasse maxNodes, attend que les autres threads sortent de l'arbre puis replie les sous-arbres
+     * les moins visités. Appelé entre deux simulations, jamais pendant une descente.
+     */
+    private void enforceMemoryCap() {
+        if (this.nodePool == null || this.nodePool.getLive() <= this.maxNodes) return;
+        this.treeLock.writeLock().lock();
+        try {
+            if (this.nodePool.getLive() > this.maxNodes) collapseLeastVisited(this.maxNodes * 3 / 4);
+        } finally {
+            this.treeLock.writeLock().unlock();
         }
     }
 
-    public void backpropagation(Node leaf) {
-        float evaluation = leaf.getEvaluation();
-        leaf.backpropagate(evaluation);
+    /**
+     * Replie, du moins visité au plus visité, les enfants des noeuds (hors racine) sans simulation en attente
+     * dans leur sous-arbre, jusqu'à ce que l'arbre ne compte plus que target noeuds.
+     */
+    private void collapseLeastVisited(int target) {
+        List<Node> candidates = new ArrayList<>();
+        ArrayDeque<Node> stack = new ArrayDeque<>(this.root.getAllChildren());
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            List<Node> children = node.getAllChildren();
+            if (children.isEmpty()) continue;
+            if (node.getVirtual_loss() == 0) candidates.add(node);
+            for (Node child : children) stack.push(child);
+        }
+        candidates.sort(Comparator.comparingDouble(Node::getVisit_count));
+        for (Node node : candidates) {
+            if (this.nodePool.getLive() <= target) break;
+            if (node.getParent_node() == null) continue; //déjà rendu avec le sous-arbre d'un autre candidat
+            this.collapsedNodes += node.collapse(this.nodePool);
+        }
     }
 
+    /**
+     * Réserve une simulation du budget partagé.
+     * @return false si le budget est épuisé ou si la recherche doit s'arrêter
+     */
+    private boolean takeSimulation(AtomicInteger remaining) {
+        while (true) {
+            int available = remaining.get();
+            if (available <= 0 || shouldStop(available)) return false;
+            if (remaining.compareAndSet(available, available - 1)) return true;
+        }
+    }
 
+    /**
+     * Chaque thread a son propre plateau, placé sur la position racine, sur lequel il joue et déjoue les coups.
+     */
+    private Board newRootBoard() {
+        Board workerBoard = new Board();
+        workerBoard.loadFromFen(this.rootFen);
+        return workerBoard;
+    }
 
-    public Node createChild(Node parent, String fen, int move_index_played , boolean active_turn) {
-        Node child = new Node(parent,fen,move_index_played,active_turn);
-        return child;
+
+    /**
+     * Recherche Gumbel à la racine (séquentielle : batchSize et threads ne sont pas utilisés).
+     * Les candidats sont les considered arêtes de plus grand g + log(prior) ; à chaque phase de l'élimination
+     * successive, chacun reçoit le même nombre de simulations (forcées par son coup, puis PUCT en dessous),
+     * et la moitié au plus faible g + log(prior) + sigma(Q complété) est écartée. La dernière phase utilise
+     * tout le budget restant. Le candidat final est gardé dans rootChoice.
+     * @param budget le nombre de simulations
+     */
+    private void searchGumbel(int budget) {
+        int remaining = budget;
+        if (this.root.getVisit_count() == 0 && remaining > 0 && selection(this.root, this.board)) { //évaluation de la racine
+            remaining--;
+            this.completed.incrementAndGet();
+        }
+        if (this.root.isFinal_state() || this.root.isProven() || this.root.getPolicy_moves() == null) return;
+        if (!this.root.isExpanded() && this.root.tryExpand()) expandChildren(this.root, this.board);
+        if (!this.root.isExpanded()) return;
+        this.root.openEdges(this.root.getPolicy_moves().length); //tous les coups gardés sont candidats, quelle que soit la politique d'expansion
+
+        //tirage de Gumbel top-k sur toutes les arêtes gardées à la racine
+        float[] priors = this.root.getPolicy_priors();
+        float[] base = new float[priors.length]; //g + log(prior)
+        for (int i = 0; i < base.length; i++) {
+            base[i] = gumbelRoot.sampleGumbel() + (float) Math.log(Math.max(priors[i], 1e-8f));
+        }
+        int[] candidates = new int[Math.min(gumbelRoot.getConsidered(), base.length)];
+        int alive = TopK.select(base, 0, base.length, candidates.length, candidates, new float[candidates.length]);
+        int phases = alive <= 1 ? 1 : 32 - Integer.numberOfLeadingZeros(alive - 1); //ceil(log2(m))
+        int total = remaining;
+
+        halving:
+        for (int phase = 0; phase < phases; phase++) {
+            boolean last = phase == phases - 1;
+            int perCandidate = last ? (remaining + alive - 1) / alive : Math.max(1, total / (phases * alive));
+            for (int k = 0; k < perCandidate; k++) {
+                for (int c = 0; c < alive; c++) {
+                    if (remaining == 0 || hardStop() || !simulateRootEdge(candidates[c])) break halving;
+                    remaining--;
+                    this.completed.incrementAndGet();
+                    enforceMemoryCap();
+                    reportStats(false);
+                }
+            }
+            if (!last) {
+                sortCandidates(candidates, alive, base);
+                alive = (alive + 1) / 2;
+            }
+        }
+        sortCandidates(candidates, alive, base);
+        this.rootChoice = this.root.child(candidates[0], this.nodePool);
     }
 
-    public Node searchChildByFen(Node parent, String fen) {
-        Node child = null;
-        for (Node node : parent.getChildren_nodes()) {
-            if(node.getFen().equals(fen)) {
-                child = node;
+    /**
+     * Une simulation forcée par une arête de la racine (la racine est comptée comme visitée, comme dans selectChild()).
+     * @return false si la simulation n'a pas eu lieu (les visites, racine comprise, sont alors annulées)
+     */
+    private boolean simulateRootEdge(int edge) {
+        Node child = this.root.child(edge, this.nodePool);
+        this.root.incrementVisitCount();
+        this.board.doMove(child.getMove_played());
+        boolean simulated = selection(child, this.board); //revertVisits() remonte jusqu'à la racine si elle est abandonnée
+        this.board.undoMove();
+        return simulated;
+    }
+
+    /**
+     * Trie les alive premiers candidats par g + log(prior) + sigma(Q complété) décroissant (tri par insertion, m est petit).
+     */
+    private void sortCandidates(int[] candidates, int alive, float[] base) {
+        float max_visits = 0;
+        for (Node child : this.root.getChildren_nodes()) max_visits = Math.max(max_visits, child.getVisit_count());
+        float mixed = mixedValue();
+        float[] scores = new float[alive];
+        for (int c = 0; c < alive; c++) {
+            scores[c] = base[candidates[c]] + gumbelRoot.sigma(completedQ(candidates[c], mixed), max_visits);
+        }
+        for (int i = 1; i < alive; i++) {
+            int candidate = candidates[i];
+            float score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                candidates[j + 1] = candidates[j];
+                scores[j + 1] = scores[j];
+                j--;
             }
+            candidates[j + 1] = candidate;
+            scores[j + 1] = score;
         }
-        return child;
     }
 
+    /**
+     * Q complété d'une arête de la racine, du point de vue du joueur au trait à la racine :
+     * valeur moyenne (ou exacte si prouvée) si l'enfant a été visité, valeur mixte sinon.
+     */
+    private float completedQ(int edge, float mixed) {
+        Node child = this.root.child(edge, this.nodePool);
+        if (child.isProven()) return -child.getProof().value();
+        if (child.getVisit_count() == 0) return mixed;
+        return -child.getTotal_evaluation() / child.getVisit_count();
+    }
 
-    public INDArray[] argsortMCTS(Node root) {
-        INDArray[] mctsSoftmax = new INDArray[2];
-        mctsSoftmax[0] = Nd4j.create(topN);
-        mctsSoftmax[1] = Nd4j.create(topN);
-        for(int i=0;i<root.getChildren_nodes().size();i++) {
-            float frequency = (root.getChildren_nodes().get(i).getVisit_count()/ (root.getVisit_count()-1));
-            mctsSoftmax[0].putScalar(i,root.getChildren_nodes().get(i).getMove_index_played());
-            mctsSoftmax[1].putScalar(i,frequency);
+    /**
+     * Valeur mixte : la valeur du réseau à la racine, complétée par les Q des enfants visités pondérés par leur prior.
+     */
+    private float mixedValue() {
+        float visits = 0;
+        float prior_sum = 0;
+        float weighted_q = 0;
+        for (Node child : this.root.getChildren_nodes()) {
+            float n = child.getVisit_count();
+            if (n == 0) continue;
+            visits += n;
+            prior_sum += child.getPrior();
+            weighted_q += child.getPrior() * (-child.getTotal_evaluation() / n);
         }
-        return mctsSoftmax;
+        float value = this.root.getEvaluation();
+        if (visits == 0 || prior_sum == 0) return value;
+        return (value + visits * weighted_q / prior_sum) / (1 + visits);
     }
 
-}
+    /**
+     * Une simulation complète depuis current_node : descente, évaluation et rétropropagation.
+     * @return true si une simulation a été rétropropagée, false si la descente a été abandonnée (visites annulées)
+     */
+    public boolean selection(Node current_node, Board board) {
+        //on parcourt les enfants du noeud en fonction du score UCT de chacun
+        //si on arrive sur un noeud inexploré ou qui n'a pas d'enfant, expansion
+        SearchPath path = PATHS.get();
+        path.reset(current_node);
+        long start = System.nanoTime();
+        Node leaf = current_node.selectChild(expansionPolicy, nodePool, path);
+        playPath(board, path, 0);
+        lap(this.counters.selection_nanos, start);
+        boolean simulated = expansion(leaf, board, path);
+        undoMoves(board, path.size() - 1);
+        return simulated;
+    }
+
+    public boolean expansion(Node leaf, Board board) {
+        SearchPath path = PATHS.get();
+        path.reset(leaf);
+        boolean simulated = expansion(leaf, board, path);
+        undoMoves(board, path.size() - 1);
+        return simulated;
+    }
+
+    /**
+     * Boucle d'expansion : les coups joués pour descendre sous leaf sont ajoutés à path, l'appelant les déjoue.
+     * @return true si une simulation a été rétropropagée
+     */
+    private boolean expansion(Node leaf, Board board, SearchPath path) {
+        //soit le noeud est inexploré, et on l'explore (on évalue sa position et on la retourne par backpropagating)
+        //soit il a déjà été exploré, et dans ce cas là on l'étend en calculant ses enfants, et on explore un de ses enfants (puis backpropation)
+        while (true) {
+            if(leaf.isFinal_state() || leaf.isProven()) {
+                leaf.incrementVisitCount();
+                backpropagation(leaf);
+                return true;
+            }
+            else if(leaf.needsEvaluation()) { //Si le noeud est inexploré
+                exploration(leaf, board);
+                leaf.incrementVisitCount();
+                backpropagation(leaf);
+                return true;
+            } else if (!leaf.isExpanded() && leaf.tryExpand()) { //Si le noeud est exploré mais n'a pas d'enfants et n'est pas un état final
+                long start = System.nanoTime();
+                expandChildren(leaf, board);
+                start = lap(this.counters.expansion_nanos, start);
+                //et on évalue l'un de ses gosses
+                int from = path.size() - 1;
+                leaf = leaf.selectChild(expansionPolicy, nodePool, path);
+                playPath(board, path, from);
+                lap(this.counters.selection_nanos, start);
+            } else {
+                //enfants en cours de création par un autre thread : rien n'est rétropropagé sur ce chemin
+                revertVisits(leaf);
+                return false;
+            }
+        }
+    }
 
+    /**
+     * Étend un noeud déjà exploré : ses arêtes (indice du coup, prior, coup légal, déjà triés lors de l'évaluation)
+     * sont ouvertes, autant que la politique d'expansion en autorise (les suivantes le sont par l'élargissement progressif).
+     * Aucun enfant n'est créé ici : Node.selectChild crée l'enfant d'une arête la première fois qu'elle est choisie.
+     * Un noeud non final a toujours au moins un coup légal : plus besoin de parcourir toute la politique.
+     * @param leaf le noeud à étendre
+     * @param board le plateau, placé sur la position du noeud
+     */
+    public void expandChildren(Node leaf, Board board) {
+        int count = expansionPolicy.allowedChildren(leaf.getVisit_count(), leaf.getPolicy_priors());
+        leaf.expand(count);
+    }
 
+    /**
+     * Sélectionne jusqu'à batchSize feuilles en appliquant une perte virtuelle sur chaque chemin,
+     * les évalue en un seul passage du réseau ([N,8,8,17]) puis rétropropage chaque résultat.
+     * Le lot s'arrête à la première descente abandonnée ou en collision (feuille déjà en attente) :
+     * ces descentes ne sont pas des simulations, l'appelant rend batchSize - le résultat à son budget.
+     * @param current_node la racine de la recherche
+     * @param batchSize le nombre maximum de simulations de ce lot
+     * @param board le plateau du thread, placé sur la position de current_node
+     * @return le nombre de simulations rétropropagées (état final, cache ou réseau)
+     */
+    public int selectionBatch(Node current_node, int batchSize, Board board) {
+        List<PendingLeaf> pending = new ArrayList<>();
+        int simulations_done = 0;
+        int attempts = 0;
+        while (attempts < batchSize) {
+            attempts++;
+            Node leaf = descend(current_node, board);
+            if (leaf == BACKPROPAGATED) { //état final déjà rétropropagé
+                simulations_done++;
+                continue;
+            }
+            if (leaf == null) break; //descente abandonnée, visites déjà annulées
+            int depth = PATHS.get().size() - 1;
+            if (!leaf.tryClaim()) {
+                //collision : la feuille est déjà en attente (dans ce lot ou dans un autre thread), on annule les visites du chemin
+                revertVisits(leaf);
+                undoMoves(board, depth);
+                break;
+            }
+            leaf.addVirtualLoss();
+            long prepare = System.nanoTime();
+            if (evaluateWithoutNetwork(leaf, board)) {
+                //position finale ou déjà dans le cache des évaluations
+                lap(this.counters.expansion_nanos, prepare);
+                finishSimulation(leaf);
+                simulations_done++;
+            } else {
+                pending.add(new PendingLeaf(leaf, board.getSideToMove(), this.chessModelInterpreter.BoardToTensor(board), LegalPolicy.fromBoard(board)));
+                lap(this.counters.expansion_nanos, prepare);
+            }
+            undoMoves(board, depth);
+        }
 
+        if (!pending.isEmpty()) evaluateBatch(pending);
+        for (PendingLeaf leaf : pending) {
+            finishSimulation(leaf.node);
+        }
+        return simulations_done + pending.size();
+    }
 
-/**
- * Cette classe permet de représenter les positions possibles dans l'arbre de MCTS.
- * Un nœud dans l'arbre = une position.
- */
-@Getter
-@Setter
-class Node {
-    private Node parent_node; // le noeud parent
-    private ArrayList<Node> children_nodes; //les noeuds enfants
-    private boolean final_state; //si la partie est terminée sur ce noeud
-    private float evaluation; //l'évaluation de ce noeud
-    private float total_evaluation; // l'évaluation totale de ce noeud et de tous ses enfants
-    private float visit_count; //Combien de fois le nœud a été visité
-    private int move_index_played; //le coup joué pour arriver à cette position
-    private String fen; //la description de la position
-    private INDArray[] sortedSoftmax; //les probabilités pour chaque coup depuis la position de ce noeud
-    private boolean active_turn; //tour de jeu du noeud (true si c'est le tour de l'IA, false sinon)
-    private final float exploration_rate = 2.5F; //Le paramètre C de la formule UCT
-
-    public Node(Node parent, String fen, int move_index_played, boolean active_turn) {
-        this.parent_node = parent;
-        this.fen = fen;
-        this.move_index_played = move_index_played;
-        this.active_turn = active_turn;
-
-        this.children_nodes = new ArrayList<Node>();
-        this.visit_count = 0;
-        this.total_evaluation = 0;
-        this.evaluation = 0;
-        this.sortedSoftmax = null;
-        this.final_state = false;
-    }
-
-    /**
-     * Renvoit un noeud feuille à étendre
-     * @return
-     */
-    public Node selectChild() {
-        float max_score = Float.NEGATIVE_INFINITY;
-        Node selected_child = null;
-
-        if(this.visit_count==0) {
-            return this; //Si le noeud est inexploré
-        } else if (this.children_nodes.isEmpty() && this.getEvaluation() !=0) {
-            return this; // Si le noeud est exploré mais n'a pas d'enfants
-        } else {
-            incrementVisitCount(); //on incrémente le nombre de visites
-            for (Node child : this.children_nodes) {
-                if(child.getPUCTScore() > max_score) {
-                    max_score = child.getPUCTScore();
-                    selected_child = child;
+    private void finishSimulation(Node leaf) {
+        leaf.removeVirtualLoss();
+        leaf.incrementVisitCount();
+        backpropagation(leaf);
+        leaf.release();
+    }
+
+    /**
+     * Descend dans l'arbre comme selection() + expansion(), mais sans appeler le réseau.
+     * Le chemin parcouru reste dans le SearchPath du thread (sa taille - 1 est le nombre de coups joués).
+     * @return la feuille à évaluer (le plateau est alors placé sur sa position) ;
+     * BACKPROPAGATED si la descente a atteint un état final ou prouvé, déjà rétropropagé (une simulation faite) ;
+     * null si la descente est abandonnée, visites du chemin annulées (aucune simulation).
+     * Dans les deux derniers cas le plateau est revenu sur current_node.
+     */
+    public Node descend(Node current_node, Board board) {
+        SearchPath path = PATHS.get();
+        path.reset(current_node);
+        long start = System.nanoTime();
+        Node leaf = current_node.selectChild(expansionPolicy, nodePool, path);
+        playPath(board, path, 0);
+        while (true) {
+            int depth = path.size() - 1;
+            if (leaf.isFinal_state() || leaf.isProven()) {
+                lap(this.counters.selection_nanos, start);
+                leaf.incrementVisitCount();
+                backpropagation(leaf);
+                undoMoves(board, depth);
+                return BACKPROPAGATED;
+            } else if (leaf.needsEvaluation()) {
+                lap(this.counters.selection_nanos, start);
+                return leaf;
+            } else if (!leaf.isExpanded()) {
+                if (!leaf.tryExpand()) {
+                    //un autre thread est en train de créer les enfants de ce noeud
+                    revertVisits(leaf);
+                    undoMoves(board, depth);
+                    lap(this.counters.selection_nanos, start);
+                    return null;
                 }
+                start = lap(this.counters.selection_nanos, start);
+                expandChildren(leaf, board);
+                start = lap(this.counters.expansion_nanos, start);
+                int from = path.size() - 1;
+                leaf = leaf.selectChild(expansionPolicy, nodePool, path);
+                playPath(board, path, from);
+            } else {
+                //enfants créés par un autre thread entre la sélection et ce test : rien à évaluer sur ce chemin
+                revertVisits(leaf);
+                undoMoves(board, depth);
+                lap(this.counters.selection_nanos, start);
+                return null;
             }
-            return selected_child.selectChild();
         }
     }
 
-    public float getPUCTScore() {
-        if (visit_count == 0) return Float.POSITIVE_INFINITY;
-        float q = this.total_evaluation / this.visit_count;
-        float p = getPriorProbability();
-        float exploration = exploration_rate * p * (float)sqrt(parent_node.getVisit_count()) / (1 + this.visit_count);
-        if (active_turn) {
-            float puct = q +exploration;
-            return puct;
-        } else {
-            float puct = -q +exploration;
-            return puct;
+    /**
+     * Joue sur le plateau les coups du chemin qui suivent le noeud d'indice from.
+     * @return le nombre de coups joués
+     */
+    private int playPath(Board board, SearchPath path, int from) {
+        for (int i = from + 1; i < path.size(); i++) {
+            board.doMove(path.get(i).getMove_played());
         }
+        return path.size() - 1 - from;
     }
 
-    public float getPriorProbability() {
-        if (sortedSoftmax == null) return 0.1f; // Valeur par défaut si pas encore évalué
-        int moveIndex = this.move_index_played;
-        for (int i = 0; i < parent_node.getSortedSoftmax()[0].length(); i++) {
-            if (parent_node.getSortedSoftmax()[0].getInt(i) == moveIndex) {
-                return parent_node.getSortedSoftmax()[1].getFloat(i); // Probabilité du coup
-            }
+    private void undoMoves(Board board, int depth) {
+        for (int i = 0; i < depth; i++) {
+            board.undoMove();
         }
-        return 0.1f; // Valeur par défaut si le coup n’est pas dans le topN
     }
 
-    public void backpropagate(float evaluation) {
-        this.addTotalEvaluation(evaluation);
-        if (this.parent_node != null) {
-            this.parent_node.backpropagate(-evaluation); // Inverse pour le parent
+    /**
+     * Annule les visites ajoutées par selectChild() sur les ancêtres d'une feuille qui ne sera pas évaluée.
+     */
+    public void revertVisits(Node leaf) {
+        for (Node node = leaf.getParent_node(); node != null; node = node.getParent_node()) {
+            node.decrementVisitCount();
         }
     }
 
-    public void addTotalEvaluation(float evaluation) {
-        this.total_evaluation += evaluation;
+    /**
+     * Évalue un lot de feuilles en un seul appel au modèle.
+     * @param leaves les feuilles à évaluer, avec leur tenseur déjà calculé
+     */
+    public void evaluateBatch(List<PendingLeaf> leaves) {
+        InferenceService service = this.chessModelInterpreter.getInferenceService();
+        if (service != null) {
+            evaluateWithService(service, leaves);
+            return;
+        }
+        long start = System.nanoTime();
+        INDArray[] tensors = new INDArray[leaves.size()];
+        for (int i = 0; i < leaves.size(); i++) {
+            tensors[i] = leaves.get(i).tensor;
+        }
+        INDArray batch = Nd4j.concat(0, tensors); //[N,8,8,17]
+        start = lap(this.counters.expansion_nanos, start);
+        INDArray[] output = this.chessModelInterpreter.output(batch);
+        start = lap(this.counters.inference_nanos, start);
+        this.counters.nn_evaluations.add(leaves.size());
+        INDArray valueOutput = output[0];
+        float[][] policies = output[1].toFloatMatrix(); //une seule copie de la sortie [N,4672]
+        for (int i = 0; i < leaves.size(); i++) {
+            applyNetworkOutput(leaves.get(i), valueOutput.getFloat(i, 0), policies[i]);
+        }
+        lap(this.counters.expansion_nanos, start);
     }
 
-    public void incrementVisitCount() {
-        this.visit_count++;
+    /**
+     * Dépose chaque feuille dans le service d'inférence, qui les regroupe avec celles des autres recherches.
+     */
+    private void evaluateWithService(InferenceService service, List<PendingLeaf> leaves) {
+        long start = System.nanoTime();
+        List<CompletableFuture<InferenceService.Result>> results = new ArrayList<>(leaves.size());
+        for (PendingLeaf leaf : leaves) results.add(service.submit(leaf.tensor));
+        start = lap(this.counters.expansion_nanos, start);
+        for (int i = 0; i < leaves.size(); i++) {
+            InferenceService.Result result = results.get(i).join();
+            start = lap(this.counters.inference_nanos, start);
+            applyNetworkOutput(leaves.get(i), result.value, result.policy);
+            start = lap(this.counters.expansion_nanos, start);
+        }
+        this.counters.nn_evaluations.add(leaves.size());
+    }
+
+    /**
+     * Applique à une feuille en attente la sortie du réseau pour sa position.
+     * Seules les probabilités des coups légaux sont lues, le noeud ne garde aucune INDArray.
+     */
+    private void applyNetworkOutput(PendingLeaf leaf, float value, float[] policyRow) {
+        storeEvaluation(leaf.node, leaf.side, value, leaf.legalMoves, policyRow);
+    }
+
+    /**
+     * Évalue le noeud sur la position courante du plateau.
+     */
+    public void exploration(Node node, Board board) {
+        long start = System.nanoTime();
+        if (evaluateWithoutNetwork(node, board)) {
+            lap(this.counters.expansion_nanos, start);
+            return;
+        }
+
+        InferenceService service = this.chessModelInterpreter.getInferenceService();
+        if (service != null) {
+            CompletableFuture<InferenceService.Result> future = service.submit(board);
+            start = lap(this.counters.expansion_nanos, start);
+            InferenceService.Result result = future.join();
+            start = lap(this.counters.inference_nanos, start);
+            this.counters.nn_evaluations.increment();
+            storeEvaluation(node, board.getSideToMove(), result.value, LegalPolicy.fromBoard(board), result.policy);
+            lap(this.counters.expansion_nanos, start);
+            return;
+        }
+
+        INDArray tensor = this.chessModelInterpreter.BoardToTensor(board);
+        start = lap(this.counters.expansion_nanos, start);
+        INDArray[] output = this.chessModelInterpreter.output(tensor);
+        start = lap(this.counters.inference_nanos, start);
+        this.counters.nn_evaluations.increment();
+        storeEvaluation(node, board.getSideToMove(), output[0].getFloat(0,0), LegalPolicy.fromBoard(board), output[1].toFloatVector());
+        lap(this.counters.expansion_nanos, start);
+    }
+
+    /**
+     * Traite les feuilles qui n'ont pas besoin du réseau : positions finales et positions déjà dans le cache des évaluations.
+     * @return true si le noeud est évalué
+     */
+    private boolean evaluateWithoutNetwork(Node node, Board board) {
+        node.setZobrist_key(board.getZobristKey());
+        boolean mated = board.isMated();
+        boolean draw = !mated && (board.isDraw() || board.isStaleMate());
+        if (mated || draw) {
+            node.setFinal_state(true, draw);
+            if (this.solver) node.prove(draw ? Proof.DRAW : Proof.LOSS);
+            return true;
+        }
+        return applyCachedEvaluation(node, board.getSideToMove());
     }
 
-    public void addChildNode(Node child) {
-        this.children_nodes.add(child);
+    /**
+     * @return le cache des évaluations de l'interpréteur, ou null s'il n'est pas utilisé
+     */
+    private EvaluationCache cache() {
+        return this.useCache ? this.chessModelInterpreter.getCache() : null;
     }
 
-    public void setFinal_state(boolean final_state) {
-        this.final_state = final_state;
-        if (this.final_state) {
-            Board board = new Board();
-            board.loadFromFen(this.fen);
-            if(board.isDraw()) this.evaluation = 0;
-            else this.evaluation = -1;
+    /**
+     * Si la position est dans le cache des évaluations (transposition, ou racine évaluée avant la recherche),
+     * réutilise l'évaluation enregistrée.
+     * @return true si le noeud a été évalué sans le réseau
+     */
+    private boolean applyCachedEvaluation(Node node, Side side) {
+        if (!this.useCache) return false;
+        int topN = expansionPolicy.getMax_children();
+        EvaluationCache.Entry entry = this.chessModelInterpreter.cachedOutput(node.getZobrist_key(), topN);
+        if (entry == null) return false;
+        applyEvaluation(node, side, entry.value, entry.policy(topN));
+        return true;
+    }
+
+    /**
+     * Enregistre la sortie du réseau dans le cache et l'applique au noeud.
+     */
+    private void storeEvaluation(Node node, Side side, float value, LegalPolicy legalMoves, float[] policyRow) {
+        int topN = expansionPolicy.getMax_children();
+        LegalPolicy policy;
+        if (this.useCache) {
+            policy = this.chessModelInterpreter.cacheOutput(node.getZobrist_key(), value, legalMoves, policyRow, topN).policy(topN);
+        } else {
+            policy = legalMoves.withPriors(policyRow, topN);
         }
+        applyEvaluation(node, side, value, policy);
     }
 
-    public void printInfoNode() {
-        System.out.println("fen :"+this.fen);
-        System.out.println("evaluation :"+this.evaluation);
-        System.out.println("total evaluation :"+this.total_evaluation);
-        System.out.println("visit count :"+this.visit_count);
-        System.out.println("move index played :"+this.move_index_played);
-        System.out.println("active turn :"+this.active_turn);
-        System.out.println("final_state :"+this.final_state);
+    /**
+     * Enregistre dans le noeud la sortie du réseau (valeur du point de vue des blancs et topN des coups légaux).
+     */
+    private void applyEvaluation(Node node, Side side, float value, LegalPolicy policy) {
+        node.setEvaluation(value);
+        if(side.value().equals("BLACK"))
+            node.setEvaluation(-1 * value);
+        node.setPolicy_moves(policy.indices);
+        node.setPolicy_priors(policy.priors);
+        node.setLegal_moves(policy.moves);
+        node.setLegal_count(policy.legal_count);
+        node.addTotalEvaluation(node.getEvaluation());
+    }
+
+    public void backpropagation(Node leaf) {
+        long start = System.nanoTime();
+        float evaluation = leaf.getEvaluation();
+        int depth = leaf.backpropagate(evaluation);
+        if (this.solver && leaf.isProven()) leaf.propagateProof();
+        this.counters.depth(depth);
+        lap(this.counters.backprop_nanos, start);
+    }
+
+    /**
+     * @return le résultat prouvé de la racine de la dernière recherche (UNKNOWN si rien n'est prouvé)
+     */
+    public Proof getRootProof() {
+        return this.root == null ? Proof.UNKNOWN : this.root.getProof();
+    }
+
+
+
+    public Node createChild(Node parent, Move move_played, int move_index_played, float prior, boolean active_turn) {
+        Node child = new Node(parent,move_played,move_index_played,prior,active_turn);
+        return child;
+    }
+
+    public Node searchChildByKey(Node parent, long key) {
+        Node child = null;
+        for (Node node : parent.getChildren_nodes()) {
+            if(node.getVisit_count() > 0 && node.getZobrist_key() == key) {
+                child = node;
+            }
+        }
+        return child;
+    }
+
+
+    public INDArray[] argsortMCTS(Node root) {
+        INDArray[] mctsSoftmax = new INDArray[2];
+        List<Node> children = root.getChildren_nodes();
+        //racine prouvée : tout le poids va au coup qui réalise le résultat (il n'est pas forcément le plus visité) ;
+        //de même pour le coup choisi par la recherche Gumbel
+        Node decided = root.isProven() ? root.bestProvenChild() : null;
+        if (decided == null && this.rootChoice != null && this.rootChoice.getParent_node() == root) decided = this.rootChoice;
+        int size = Math.max(topN, children.size()); //l'élargissement progressif peut dépasser topN
+        mctsSoftmax[0] = Nd4j.create(size);
+        mctsSoftmax[1] = Nd4j.create(size);
+        for(int i=0;i<children.size();i++) {
+            float frequency = decided != null ? (children.get(i) == decided ? 1 : 0) : (children.get(i).getVisit_count()/ (root.getVisit_count()-1));
+            mctsSoftmax[0].putScalar(i,children.get(i).getMove_index_played());
+            mctsSoftmax[1].putScalar(i,frequency);
+        }
+        return mctsSoftmax;
+    }
+
+    /**
+     * @return le nombre de noeuds de l'arbre courant (parcours itératif)
+     */
+    public int treeSize() {
+        if (this.root == null) return 0;
+        int size = 0;
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(this.root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            size++;
+            for (Node child : node.getChildren_nodes()) stack.push(child);
+        }
+        return size;
+    }
+
+    /**
+     * Feuille en attente d'évaluation dans un lot : ce qu'il faut connaître de sa position
+     * une fois le plateau revenu à la racine.
+     */
+    static final class PendingLeaf {
+        final Node node;
+        final Side side;
+        final INDArray tensor; //null en mode pipeline (la position est encodée par le service)
+        final LegalPolicy legalMoves; //générés pendant que le plateau est sur la position
+        CompletableFuture<InferenceService.Result> result; //mode pipeline : la sortie du réseau à venir
+
+        PendingLeaf(Node node, Side side, INDArray tensor, LegalPolicy legalMoves) {
+            this.node = node;
+            this.side = side;
+            this.tensor = tensor;
+            this.legalMoves = legalMoves;
+        }
     }
 }
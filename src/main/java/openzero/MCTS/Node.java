@@ -0,0 +1,510 @@
+package openzero.MCTS;
+
+import com.github.bhlangonijr.chesslib.move.Move;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.lang.Math.sqrt;
+
+/**
+ * Cette classe permet de représenter les positions possibles dans l'arbre de MCTS.
+ * Un nœud dans l'arbre = une position.
+ * Les statistiques (visites, évaluation totale, perte virtuelle) sont atomiques pour que plusieurs
+ * threads puissent parcourir le même arbre sans verrou.
+ * Les arêtes vers les enfants (indice du coup, prior, coup chesslib) sont les tableaux policy_* du noeud :
+ * un enfant n'est créé que la première fois que la sélection choisit son arête.
+ * Un noeud dont le résultat est prouvé (proof) n'est plus développé : la sélection s'y arrête et rétropropage sa valeur exacte.
+ * Quand l'arbre dépasse sa taille maximale, les enfants des noeuds peu visités sont repliés dans les statistiques
+ * d'arêtes (edge_visits, edge_values) de leur parent et rendus à la NodePool ; un enfant recréé plus tard repart de ces statistiques.
+ */
+@Getter
+@Setter
+class Node {
+    private Node parent_node; // le noeud parent
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private volatile AtomicReferenceArray<Node> children; //enfants indexés comme les arêtes (null tant que l'arête n'a pas été choisie)
+    @Setter(AccessLevel.NONE)
+    private volatile int edge_count; //nombre d'arêtes ouvertes à la sélection (0 tant que le noeud n'est pas étendu)
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private int[] edge_visits; //visites des enfants repliés, par arête (null tant qu'aucun enfant n'a été replié)
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private float[] edge_values; //évaluations totales des enfants repliés, par arête
+    private boolean final_state; //si la partie est terminée sur ce noeud
+    private float evaluation; //l'évaluation de ce noeud
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final AtomicInteger total_evaluation; // l'évaluation totale de ce noeud et de tous ses enfants (bits d'un float)
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final AtomicInteger visit_count; //Combien de fois le nœud a été visité
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final AtomicInteger virtual_loss; //Nombre de simulations en attente d'évaluation qui passent par ce noeud
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final AtomicBoolean pending; //vrai si une simulation a réservé ce noeud pour l'évaluer
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final AtomicBoolean expanding; //vrai dès qu'un thread a gagné le droit de créer les enfants
+    private int move_index_played; //le coup joué pour arriver à cette position
+    private float prior; //probabilité a priori de ce coup, copiée de la politique du parent à l'expansion
+    private Move move_played; //le coup chesslib correspondant (joué/déjoué sur le plateau pendant la descente)
+    private long zobrist_key; //la clé Zobrist de la position (0 tant que le noeud n'a pas été atteint)
+    private int[] policy_moves; //les indices des coups légaux du topN depuis la position de ce noeud (décroissant)
+    private float[] policy_priors; //les probabilités associées, renormalisées sur les coups légaux (tableaux Java : aucune allocation native par noeud)
+    private Move[] legal_moves; //les coups chesslib correspondant à policy_moves
+    private int legal_count; //nombre de coups légaux de la position (policy_moves n'en garde que les topN)
+    @Setter(AccessLevel.NONE)
+    private volatile Proof proof; //résultat prouvé pour le joueur au trait (UNKNOWN tant que rien n'est prouvé)
+    private boolean active_turn; //tour de jeu du noeud (true si c'est le tour de l'IA, false sinon)
+    private final float exploration_rate = 2.5F; //Le paramètre C de la formule UCT
+
+    public Node(Node parent, Move move_played, int move_index_played, float prior, boolean active_turn) {
+        this.visit_count = new AtomicInteger(0);
+        this.virtual_loss = new AtomicInteger(0);
+        this.total_evaluation = new AtomicInteger(Float.floatToIntBits(0));
+        this.pending = new AtomicBoolean(false);
+        this.expanding = new AtomicBoolean(false);
+        reset(parent, move_played, move_index_played, prior, active_turn);
+    }
+
+    /**
+     * Remet le noeud à l'état d'un noeud neuf (réutilisation par la NodePool).
+     */
+    void reset(Node parent, Move move_played, int move_index_played, float prior, boolean active_turn) {
+        this.parent_node = parent;
+        this.move_played = move_played;
+        this.move_index_played = move_index_played;
+        this.prior = prior;
+        this.active_turn = active_turn;
+
+        this.children = null;
+        this.edge_count = 0;
+        this.edge_visits = null;
+        this.edge_values = null;
+        this.visit_count.set(0);
+        this.virtual_loss.set(0);
+        this.total_evaluation.set(Float.floatToIntBits(0));
+        this.pending.set(false);
+        this.expanding.set(false);
+        this.zobrist_key = 0;
+        this.evaluation = 0;
+        this.policy_moves = null;
+        this.policy_priors = null;
+        this.legal_moves = null;
+        this.legal_count = 0;
+        this.proof = Proof.UNKNOWN;
+        this.final_state = false;
+    }
+
+    /**
+     * Renvoit un noeud feuille à étendre
+     * @return
+     */
+    public Node selectChild() {
+        return selectChild(null);
+    }
+
+    /**
+     * @param expansion_policy si elle est progressive, des enfants sont ajoutés au fil des visites (null sinon)
+     */
+    public Node selectChild(ExpansionPolicy expansion_policy) {
+        return selectChild(expansion_policy, null);
+    }
+
+    /**
+     * @param pool la réserve où prendre les enfants créés (null : allocation directe)
+     */
+    public Node selectChild(ExpansionPolicy expansion_policy, NodePool pool) {
+        return selectChild(expansion_policy, pool, null);
+    }
+
+    /**
+     * Descente itérative (une boucle, pas un appel par coup) jusqu'à la feuille.
+     * @param path reçoit les noeuds traversés après celui-ci (null : non mémorisés)
+     */
+    Node selectChild(ExpansionPolicy expansion_policy, NodePool pool, SearchPath path) {
+        Node node = this;
+        while (true) {
+            Node next = node.selectEdge(expansion_policy, pool);
+            if (next == null) return node;
+            if (path != null) path.add(next);
+            node = next;
+        }
+    }
+
+    /**
+     * Un pas de la descente : choisit l'arête de meilleur score PUCT et renvoie son enfant.
+     * @return l'enfant choisi, ou null si ce noeud est la feuille de la simulation
+     */
+    private Node selectEdge(ExpansionPolicy expansion_policy, NodePool pool) {
+        float max_score = Float.NEGATIVE_INFINITY;
+        int selected_edge = -1;
+        int edges = this.edge_count;
+
+        if(this.proof != Proof.UNKNOWN) {
+            return null; //résultat prouvé : inutile de descendre plus loin
+        } else if(this.visit_count.get()==0) {
+            return null; //Si le noeud est inexploré
+        } else if (edges == 0) {
+            return null; // Si le noeud est exploré mais n'a pas d'enfants (à étendre, ou état final)
+        } else {
+            incrementVisitCount(); //on incrémente le nombre de visites
+            if (expansion_policy != null && expansion_policy.isProgressive()) {
+                edges = widen(expansion_policy);
+            }
+            AtomicReferenceArray<Node> children = this.children;
+            int[] edge_visits = this.edge_visits;
+            //la racine carrée des visites du parent est commune à tous les enfants, et chaque score n'est calculé qu'une fois
+            float sqrt_parent = (float) sqrt(this.visit_count.get());
+            for (int i = 0; i < edges; i++) {
+                Node child = children.get(i);
+                //une arête jamais choisie est notée directement à partir de son prior, sans créer l'enfant
+                float score;
+                if (child == null && edge_visits != null && edge_visits[i] > 0) {
+                    score = score(this.edge_values[i], edge_visits[i], 0, this.policy_priors[i], sqrt_parent); //enfant replié
+                }
+                else if (child == null) score = exploration_rate * this.policy_priors[i] * sqrt_parent;
+                else if (child.proof == Proof.LOSS) score = Float.MAX_VALUE; //coup gagnant prouvé
+                else if (child.proof == Proof.WIN) score = -Float.MAX_VALUE; //coup perdant prouvé, choisi seulement s'il ne reste rien d'autre
+                else score = child.getPUCTScore(sqrt_parent);
+                if(score > max_score) {
+                    max_score = score;
+                    selected_edge = i;
+                }
+            }
+            return child(selected_edge, pool);
+        }
+    }
+
+    /**
+     * Ouvre les arêtes du noeud sans créer d'enfant (appelé par le thread qui a gagné tryExpand()).
+     * @param count le nombre d'arêtes ouvertes à la sélection, parmi policy_moves
+     */
+    public void expand(int count) {
+        this.children = new AtomicReferenceArray<>(this.policy_moves.length);
+        this.edge_count = count; //publié après le tableau : un lecteur qui voit edge_count > 0 voit aussi children
+    }
+
+    /**
+     * @return true si les arêtes du noeud ont été ouvertes
+     */
+    public boolean isExpanded() {
+        return this.edge_count > 0;
+    }
+
+    /**
+     * @return true si le noeud doit encore être évalué : jamais visité, ou recréé après un repli
+     * (il a alors des visites mais pas encore de politique)
+     */
+    public boolean needsEvaluation() {
+        return this.visit_count.get() == 0 || this.policy_priors == null;
+    }
+
+    Node child(int edge) {
+        return child(edge, null);
+    }
+
+    /**
+     * Renvoie l'enfant d'une arête, en le créant la première fois (un seul objet gagne la CAS si plusieurs threads arrivent ensemble).
+     * Un enfant recréé après un repli reprend les visites et l'évaluation totale gardées sur l'arête.
+     * @param pool la réserve où prendre le noeud (null : allocation directe)
+     */
+    Node child(int edge, NodePool pool) {
+        Node child = this.children.get(edge);
+        if (child == null) {
+            Move move = this.legal_moves[edge];
+            int index = this.policy_moves[edge];
+            float prior = this.policy_priors[edge];
+            Node created = pool == null ? new Node(this, move, index, prior, !this.active_turn) : pool.acquire(this, move, index, prior, !this.active_turn);
+            int[] edge_visits = this.edge_visits;
+            if (edge_visits != null && edge_visits[edge] > 0) {
+                created.visit_count.set(edge_visits[edge]);
+                created.total_evaluation.set(Float.floatToIntBits(this.edge_values[edge]));
+            }
+            if (this.children.compareAndSet(edge, null, created)) {
+                child = created;
+            } else {
+                child = this.children.get(edge);
+                if (pool != null) pool.release(created);
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Replie les enfants créés de ce noeud dans ses statistiques d'arêtes et rend leurs sous-arbres à la réserve.
+     * À n'appeler que lorsqu'aucun thread ne parcourt l'arbre.
+     * @return le nombre de noeuds rendus
+     */
+    int collapse(NodePool pool) {
+        AtomicReferenceArray<Node> children = this.children;
+        if (children == null) return 0;
+        if (this.edge_visits == null) {
+            this.edge_visits = new int[children.length()];
+            this.edge_values = new float[children.length()];
+        }
+        int released = 0;
+        for (int i = 0; i < children.length(); i++) {
+            Node child = children.get(i);
+            if (child == null) continue;
+            this.edge_visits[i] = child.visit_count.get();
+            this.edge_values[i] = child.getTotal_evaluation();
+            children.set(i, null);
+            released += pool.releaseSubtree(child);
+        }
+        return released;
+    }
+
+    /**
+     * @return les enfants créés, sur toutes les arêtes gardées (ouvertes ou non)
+     */
+    List<Node> getAllChildren() {
+        AtomicReferenceArray<Node> children = this.children;
+        if (children == null) return Collections.emptyList();
+        List<Node> created = new ArrayList<>();
+        for (int i = 0; i < children.length(); i++) {
+            Node child = children.get(i);
+            if (child != null) created.add(child);
+        }
+        return created;
+    }
+
+    /**
+     * Élargissement progressif : ouvre les arêtes suivantes (ordre décroissant des priors)
+     * quand le nombre de visites du noeud en autorise davantage. Aucun enfant n'est créé ici.
+     * @return le nombre d'arêtes ouvertes
+     */
+    private int widen(ExpansionPolicy expansion_policy) {
+        int edges = this.edge_count;
+        if (this.policy_priors == null || edges >= this.children.length()) return edges;
+        return openEdges(expansion_policy.allowedChildren(getVisit_count(), this.policy_priors));
+    }
+
+    /**
+     * Ouvre au moins count arêtes (plafonné au nombre d'arêtes gardées), sans créer d'enfant.
+     * @return le nombre d'arêtes ouvertes
+     */
+    synchronized int openEdges(int count) {
+        int allowed = Math.min(count, this.children.length());
+        if (allowed > this.edge_count) this.edge_count = allowed;
+        return this.edge_count;
+    }
+
+    /**
+     * @return les enfants déjà créés (les arêtes jamais choisies n'y figurent pas)
+     */
+    public List<Node> getChildren_nodes() {
+        int edges = this.edge_count;
+        if (edges == 0) return Collections.emptyList();
+        AtomicReferenceArray<Node> children = this.children;
+        List<Node> created = new ArrayList<>(edges);
+        for (int i = 0; i < edges; i++) {
+            Node child = children.get(i);
+            if (child != null) created.add(child);
+        }
+        return created;
+    }
+
+    /**
+     * Marque le noeud comme prouvé : son évaluation devient la valeur exacte du résultat.
+     */
+    public void prove(Proof proof) {
+        this.evaluation = proof.value();
+        this.proof = proof;
+    }
+
+    public boolean isProven() {
+        return this.proof != Proof.UNKNOWN;
+    }
+
+    /**
+     * Fait remonter la preuve de ce noeud vers ses ancêtres, tant que leur résultat devient prouvé.
+     */
+    public void propagateProof() {
+        for (Node node = this.parent_node; node != null && node.proof == Proof.UNKNOWN; node = node.parent_node) {
+            Proof proof = node.solve();
+            if (proof == Proof.UNKNOWN) return;
+            node.prove(proof);
+        }
+    }
+
+    /**
+     * Résultat du noeud d'après ses enfants : gagné si un enfant est perdu pour l'adversaire ;
+     * perdu ou nul seulement si tous les coups légaux de la position ont un enfant prouvé
+     * (impossible quand policy_moves n'a gardé qu'une partie des coups légaux).
+     */
+    private Proof solve() {
+        AtomicReferenceArray<Node> children = this.children;
+        if (children == null) return Proof.UNKNOWN;
+        boolean complete = children.length() == this.legal_count;
+        boolean draw = false;
+        for (int i = 0; i < children.length(); i++) {
+            Node child = children.get(i);
+            Proof proof = child == null ? Proof.UNKNOWN : child.proof;
+            if (proof == Proof.LOSS) return Proof.WIN;
+            if (proof == Proof.DRAW) draw = true;
+            else if (proof != Proof.WIN) complete = false;
+        }
+        if (!complete) return Proof.UNKNOWN;
+        return draw ? Proof.DRAW : Proof.LOSS;
+    }
+
+    /**
+     * @return l'enfant au meilleur résultat prouvé pour le joueur au trait (à visites égales, le plus visité), null si aucun
+     */
+    public Node bestProvenChild() {
+        Node best = null;
+        for (Node child : getChildren_nodes()) {
+            if (child.proof == Proof.UNKNOWN) continue;
+            if (best == null || child.proof.value() < best.proof.value()
+                    || (child.proof.value() == best.proof.value() && child.getVisit_count() > best.getVisit_count())) {
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    public float getPUCTScore() {
+        return getPUCTScore((float) sqrt(parent_node.getVisit_count()));
+    }
+
+    /**
+     * Score PUCT du point de vue du joueur qui choisit ce coup (le joueur au trait du parent).
+     * total_evaluation est du point de vue du joueur au trait sur ce noeud, d'où le signe négatif.
+     * @param sqrt_parent la racine carrée du nombre de visites du parent
+     */
+    public float getPUCTScore(float sqrt_parent) {
+        return score(getTotal_evaluation(), this.visit_count.get(), this.virtual_loss.get(), this.prior, sqrt_parent);
+    }
+
+    private float score(float total, int visits, int virtual, float prior, float sqrt_parent) {
+        float n = visits + virtual;
+        if (n == 0) return exploration_rate * prior * sqrt_parent; //même note qu'une arête jamais choisie (q = 0)
+        float q = total / n;
+        float exploration = exploration_rate * prior * sqrt_parent / (1 + n);
+        float loss = virtual / n; //chaque simulation en attente compte comme une défaite pour celui qui choisit ce coup
+        return -q - loss + exploration;
+    }
+
+    public float getPriorProbability() {
+        return this.prior;
+    }
+
+    /**
+     * Remonte l'évaluation jusqu'à la racine en une boucle sur les parents.
+     * @return la profondeur du noeud (nombre d'ancêtres mis à jour)
+     */
+    public int backpropagate(float evaluation) {
+        int depth = -1;
+        for (Node node = this; node != null; node = node.parent_node) {
+            node.addTotalEvaluation(evaluation);
+            evaluation = -evaluation; // Inverse pour le parent
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Ajout atomique (CAS) sur l'évaluation totale.
+     */
+    public void addTotalEvaluation(float evaluation) {
+        int current;
+        int updated;
+        do {
+            current = this.total_evaluation.get();
+            updated = Float.floatToIntBits(Float.intBitsToFloat(current) + evaluation);
+        } while (!this.total_evaluation.compareAndSet(current, updated));
+    }
+
+    public float getTotal_evaluation() {
+        return Float.intBitsToFloat(this.total_evaluation.get());
+    }
+
+    public float getVisit_count() {
+        return this.visit_count.get();
+    }
+
+    public int getVirtual_loss() {
+        return this.virtual_loss.get();
+    }
+
+    public void incrementVisitCount() {
+        this.visit_count.incrementAndGet();
+    }
+
+    public void decrementVisitCount() {
+        this.visit_count.decrementAndGet();
+    }
+
+    /**
+     * Réserve ce noeud pour une évaluation : un seul thread (ou une seule descente d'un lot) peut l'obtenir.
+     * @return true si la réservation a réussi
+     */
+    public boolean tryClaim() {
+        return this.pending.compareAndSet(false, true);
+    }
+
+    public void release() {
+        this.pending.set(false);
+    }
+
+    /**
+     * Un seul thread gagne le droit de créer les enfants de ce noeud.
+     * @return true pour le thread gagnant
+     */
+    public boolean tryExpand() {
+        return this.expanding.compareAndSet(false, true);
+    }
+
+    /**
+     * Ajoute une perte virtuelle sur ce noeud et tous ses ancêtres, pour écarter les autres descentes du même lot.
+     */
+    public void addVirtualLoss() {
+        for (Node node = this; node != null; node = node.parent_node) {
+            node.virtual_loss.incrementAndGet();
+        }
+    }
+
+    public void removeVirtualLoss() {
+        for (Node node = this; node != null; node = node.parent_node) {
+            node.virtual_loss.decrementAndGet();
+        }
+    }
+
+    /**
+     * Publie d'un coup des enfants déjà créés, une arête par enfant (arbres construits hors recherche).
+     */
+    public void setChildren(List<Node> children) {
+        AtomicReferenceArray<Node> array = new AtomicReferenceArray<>(children.size());
+        for (int i = 0; i < children.size(); i++) array.set(i, children.get(i));
+        this.children = array;
+        this.edge_count = children.size();
+    }
+
+    /**
+     * @param final_state si la partie est terminée sur ce noeud
+     * @param draw si elle se termine par une nulle (sinon le joueur au trait est mat)
+     */
+    public void setFinal_state(boolean final_state, boolean draw) {
+        this.final_state = final_state;
+        if (this.final_state) {
+            if(draw) this.evaluation = 0;
+            else this.evaluation = -1;
+        }
+    }
+
+    public void printInfoNode() {
+        System.out.println("move played :"+this.move_played);
+        System.out.println("evaluation :"+this.evaluation);
+        System.out.println("total evaluation :"+this.getTotal_evaluation());
+        System.out.println("visit count :"+this.getVisit_count());
+        System.out.println("move index played :"+this.move_index_played);
+        System.out.println("active turn :"+this.active_turn);
+        System.out.println("final_state :"+this.final_state);
+        System.out.println("proof :"+this.proof);
+    }
+}
@@ -0,0 +1,86 @@
+package openzero.MCTS;
+
+import com.github.bhlangonijr.chesslib.move.Move;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Réserve de noeuds pour un arbre de taille bornée : les noeuds des sous-arbres repliés y sont rendus
+ * et réutilisés pour les enfants créés ensuite, ce qui garde la mémoire stable pendant les longues recherches.
+ * Compte aussi les noeuds vivants de l'arbre.
+ */
+class NodePool {
+    private final Node[] free; //pile des noeuds libres
+    private int size;
+    private final AtomicInteger live = new AtomicInteger(); //noeuds de l'arbre courant
+    private long reused; //noeuds sortis de la réserve plutôt qu'alloués
+
+    /**
+     * @param capacity le nombre maximum de noeuds gardés en réserve (au-delà, ils sont laissés au GC)
+     */
+    NodePool(int capacity) {
+        this.free = new Node[capacity];
+    }
+
+    Node acquire(Node parent, Move move_played, int move_index_played, float prior, boolean active_turn) {
+        Node node = null;
+        synchronized (this) {
+            if (size > 0) {
+                node = free[--size];
+                free[size] = null;
+                reused++;
+            }
+        }
+        if (node == null) node = new Node(parent, move_played, move_index_played, prior, active_turn);
+        else node.reset(parent, move_played, move_index_played, prior, active_turn);
+        live.incrementAndGet();
+        return node;
+    }
+
+    /**
+     * Rend un noeud qui n'a jamais été attaché à l'arbre (CAS perdue dans Node.child()).
+     */
+    void release(Node node) {
+        live.decrementAndGet();
+        push(node);
+    }
+
+    /**
+     * Rend un noeud et tous ses descendants.
+     * @return le nombre de noeuds rendus
+     */
+    int releaseSubtree(Node root) {
+        int released = 0;
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            for (Node child : node.getAllChildren()) stack.push(child);
+            node.reset(null, null, -1, 0, false); //libère ses références ; parent null : le noeud est sorti de l'arbre
+            push(node);
+            released++;
+        }
+        live.addAndGet(-released);
+        return released;
+    }
+
+    private synchronized void push(Node node) {
+        if (size < free.length) free[size++] = node;
+    }
+
+    int getLive() {
+        return live.get();
+    }
+
+    /**
+     * Recale le compteur sur la taille de l'arbre (après réutilisation d'un sous-arbre de la recherche précédente).
+     */
+    void setLive(int nodes) {
+        live.set(nodes);
+    }
+
+    synchronized long getReused() {
+        return reused;
+    }
+}
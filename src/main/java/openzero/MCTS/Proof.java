@@ -0,0 +1,28 @@
+package openzero.MCTS;
+
+/**
+ * Résultat prouvé d'une position, du point de vue du joueur au trait (MCTS-solver).
+ * Une position finale est prouvée (mat : LOSS, nulle : DRAW), puis la preuve remonte dans l'arbre :
+ * un noeud est gagné si un de ses coups mène à une position perdue pour l'adversaire,
+ * perdu si tous ses coups légaux mènent à une position gagnée pour l'adversaire,
+ * nul si tous ses coups sont prouvés et que le meilleur est une nulle.
+ */
+public enum Proof {
+    UNKNOWN(0),
+    WIN(1),
+    LOSS(-1),
+    DRAW(0);
+
+    private final float value;
+
+    Proof(float value) {
+        this.value = value;
+    }
+
+    /**
+     * @return la valeur exacte rétropropagée par un noeud prouvé
+     */
+    public float value() {
+        return value;
+    }
+}
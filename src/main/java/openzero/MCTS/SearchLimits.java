@@ -0,0 +1,61 @@
+package openzero.MCTS;
+
+import lombok.Getter;
+
+/**
+ * Conditions d'arrêt d'une recherche : nombre de simulations, temps, ou recherche infinie jusqu'à stop().
+ * Les limites se combinent (la première atteinte arrête la recherche).
+ * Avec early_stop, la recherche s'arrête aussi dès que le coup le plus visité à la racine
+ * ne peut plus être rattrapé avec le budget restant.
+ */
+@Getter
+public class SearchLimits {
+    private final int nodes; //nombre de simulations (0 = pas de limite)
+    private final long time_millis; //temps de réflexion (0 = pas de limite)
+    private final boolean infinite; //ignore les limites, seul stop() arrête la recherche
+    private final boolean early_stop; //arrêt anticipé quand le meilleur coup ne peut plus changer
+
+    private SearchLimits(int nodes, long time_millis, boolean infinite, boolean early_stop) {
+        this.nodes = nodes;
+        this.time_millis = time_millis;
+        this.infinite = infinite;
+        this.early_stop = early_stop;
+    }
+
+    public static SearchLimits nodes(int nodes) {
+        return new SearchLimits(nodes, 0, false, true);
+    }
+
+    public static SearchLimits time(long millis) {
+        return new SearchLimits(0, millis, false, true);
+    }
+
+    public static SearchLimits of(int nodes, long millis) {
+        return new SearchLimits(nodes, millis, false, true);
+    }
+
+    public static SearchLimits infinite() {
+        return new SearchLimits(0, 0, true, false);
+    }
+
+    public SearchLimits withEarlyStop(boolean early_stop) {
+        return new SearchLimits(this.nodes, this.time_millis, this.infinite, early_stop);
+    }
+
+    /**
+     * @return le nombre maximum de simulations (Integer.MAX_VALUE sans limite de noeuds)
+     */
+    public int nodeBudget() {
+        return infinite || nodes <= 0 ? Integer.MAX_VALUE : nodes;
+    }
+
+    public boolean hasTimeLimit() {
+        return !infinite && time_millis > 0;
+    }
+
+    @Override
+    public String toString() {
+        if (infinite) return "infinite";
+        return "nodes=" + (nodes > 0 ? nodes : "-") + " time=" + (time_millis > 0 ? time_millis + "ms" : "-") + (early_stop ? " early-stop" : "");
+    }
+}
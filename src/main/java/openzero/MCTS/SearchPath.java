@@ -0,0 +1,37 @@
+package openzero.MCTS;
+
+/**
+ * Chemin d'une simulation, du noeud de départ à la feuille. Chaque thread de recherche garde le sien
+ * d'une simulation à l'autre : la descente le remplit sans allocation, puis les coups sont joués
+ * et déjoués sur le plateau en parcourant le tableau (plus de récursion sur les parents).
+ */
+final class SearchPath {
+    private Node[] nodes = new Node[64];
+    private int size;
+
+    /**
+     * Vide le chemin et le fait partir de start (les références précédentes sont effacées pour ne pas retenir un ancien arbre).
+     */
+    void reset(Node start) {
+        for (int i = 0; i < size; i++) nodes[i] = null;
+        nodes[0] = start;
+        size = 1;
+    }
+
+    void add(Node node) {
+        if (size == nodes.length) {
+            Node[] grown = new Node[nodes.length * 2];
+            System.arraycopy(nodes, 0, grown, 0, size);
+            nodes = grown;
+        }
+        nodes[size++] = node;
+    }
+
+    Node get(int index) {
+        return nodes[index];
+    }
+
+    int size() {
+        return size;
+    }
+}
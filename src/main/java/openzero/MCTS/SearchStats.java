@@ -0,0 +1,119 @@
+package openzero.MCTS;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Photographie des statistiques d'une recherche (MonteCarloTreeSearch.getStats(), ou le listener appelé
+ * périodiquement pendant la recherche). Les compteurs du chemin critique sont des LongAdder (compteurs répartis,
+ * sans verrou ni CAS disputée) : ils peuvent rester actifs en production.
+ */
+@Getter
+public class SearchStats {
+    private final long simulations;
+    private final long elapsed_nanos;
+    private final long nn_evaluations; //positions évaluées par le réseau
+    private final double average_depth; //profondeur moyenne des feuilles atteintes
+    private final long max_depth;
+    private final long selection_nanos; //descente dans l'arbre (PUCT, coups joués et déjoués)
+    private final long expansion_nanos; //préparation des évaluations : tenseurs, coups légaux, politique, cache des évaluations
+    private final long inference_nanos; //appels au réseau (ou attente des résultats en mode pipeline)
+    private final long backprop_nanos; //rétropropagation et preuves
+    private final long cache_hits; //cache des évaluations de l'interpréteur, pendant cette recherche
+    private final long cache_misses;
+    private final int tree_nodes;
+    private final List<String> principal_variation; //coups les plus visités depuis la racine
+    private final int[] principal_visits; //visites de chaque coup de la variante principale
+
+    SearchStats(Counters counters, long simulations, long cache_hits, long cache_misses, int tree_nodes,
+                List<String> principal_variation, int[] principal_visits) {
+        this.simulations = simulations;
+        this.elapsed_nanos = counters.elapsed();
+        this.nn_evaluations = counters.nn_evaluations.sum();
+        long leaves = counters.leaves.sum();
+        this.average_depth = leaves == 0 ? 0 : counters.depth_sum.sum() / (double) leaves;
+        this.max_depth = counters.max_depth.get();
+        this.selection_nanos = counters.selection_nanos.sum();
+        this.expansion_nanos = counters.expansion_nanos.sum();
+        this.inference_nanos = counters.inference_nanos.sum();
+        this.backprop_nanos = counters.backprop_nanos.sum();
+        this.cache_hits = cache_hits;
+        this.cache_misses = cache_misses;
+        this.tree_nodes = tree_nodes;
+        this.principal_variation = Collections.unmodifiableList(principal_variation);
+        this.principal_visits = principal_visits;
+    }
+
+    public double getSimulationsPerSecond() {
+        return simulations / Math.max(1e-9, elapsed_nanos / 1e9);
+    }
+
+    public double getEvaluationsPerSecond() {
+        return nn_evaluations / Math.max(1e-9, elapsed_nanos / 1e9);
+    }
+
+    public double getCacheHitRate() {
+        long total = cache_hits + cache_misses;
+        return total == 0 ? 0 : (double) cache_hits / total;
+    }
+
+    /**
+     * @return la part d'une phase dans le temps mesuré des quatre phases
+     */
+    public double share(long phase_nanos) {
+        long total = selection_nanos + expansion_nanos + inference_nanos + backprop_nanos;
+        return total == 0 ? 0 : (double) phase_nanos / total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder pv = new StringBuilder();
+        for (int i = 0; i < principal_variation.size(); i++) {
+            pv.append(' ').append(principal_variation.get(i)).append('(').append(principal_visits[i]).append(')');
+        }
+        return String.format("%d simulations en %.0f ms (%.1f/s) | réseau %d (%.1f/s) | profondeur moy. %.1f max %d"
+                        + " | sélection %.0f%% expansion %.0f%% inférence %.0f%% rétropropagation %.0f%%"
+                        + " | cache %.1f%% | %d noeuds | pv%s",
+                simulations, elapsed_nanos / 1e6, getSimulationsPerSecond(), nn_evaluations, getEvaluationsPerSecond(),
+                average_depth, max_depth, 100 * share(selection_nanos), 100 * share(expansion_nanos),
+                100 * share(inference_nanos), 100 * share(backprop_nanos), 100 * getCacheHitRate(), tree_nodes, pv);
+    }
+
+    /**
+     * Compteurs d'une recherche, mis à jour par les threads de recherche.
+     */
+    static final class Counters {
+        final long start = System.nanoTime();
+        volatile long end; //fin de la recherche (0 : recherche en cours)
+        final LongAdder nn_evaluations = new LongAdder();
+        final LongAdder leaves = new LongAdder();
+        final LongAdder depth_sum = new LongAdder();
+        final LongAccumulator max_depth = new LongAccumulator(Math::max, 0);
+        final LongAdder selection_nanos = new LongAdder();
+        final LongAdder expansion_nanos = new LongAdder();
+        final LongAdder inference_nanos = new LongAdder();
+        final LongAdder backprop_nanos = new LongAdder();
+
+        void finish() {
+            end = System.nanoTime();
+        }
+
+        /**
+         * @return la durée de la recherche, figée à sa fin
+         */
+        long elapsed() {
+            long finished = end;
+            return (finished == 0 ? System.nanoTime() : finished) - start;
+        }
+
+        void depth(int depth) {
+            leaves.increment();
+            depth_sum.add(depth);
+            max_depth.accumulate(depth);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package openzero.MCTS;
+
+/**
+ * Répartit le temps restant à la pendule entre les coups de la partie.
+ * Chaque coup reçoit une part du temps restant plus l'essentiel de l'incrément ; l'arrêt anticipé
+ * de la recherche (SearchLimits.early_stop) fait que les coups évidents n'en consomment qu'une partie,
+ * ce qui laisse plus de temps pour les positions difficiles.
+ */
+public class TimeManager {
+    private static final int DEFAULT_MOVES_TO_GO = 30; //coups restants supposés quand la cadence ne le précise pas
+    private static final long MIN_MILLIS = 10;
+
+    private final long overhead_millis; //marge pour la latence (interface, réseau) à chaque coup
+    private final int simulations; //limite de noeuds ajoutée au temps (0 = aucune)
+
+    public TimeManager() {
+        this(50, 0);
+    }
+
+    public TimeManager(long overhead_millis, int simulations) {
+        this.overhead_millis = overhead_millis;
+        this.simulations = simulations;
+    }
+
+    /**
+     * @param remaining_millis le temps restant à la pendule du joueur au trait
+     * @param increment_millis l'incrément par coup
+     * @param moves_to_go le nombre de coups avant le prochain contrôle de temps (0 si inconnu)
+     * @return les limites de la recherche pour ce coup
+     */
+    public SearchLimits allocate(long remaining_millis, long increment_millis, int moves_to_go) {
+        long available = Math.max(0, remaining_millis - overhead_millis);
+        int moves = moves_to_go > 0 ? moves_to_go : DEFAULT_MOVES_TO_GO;
+        long budget = available / moves + increment_millis * 3 / 4;
+        //jamais plus d'un tiers du temps restant sur un seul coup
+        budget = Math.min(budget, available / 3);
+        budget = Math.max(budget, MIN_MILLIS);
+        return SearchLimits.of(simulations, budget);
+    }
+}
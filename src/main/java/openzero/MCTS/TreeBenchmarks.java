@@ -0,0 +1,218 @@
+package openzero.MCTS;
+
+import com.github.bhlangonijr.chesslib.move.Move;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.lang.Math.sqrt;
+
+/**
+ * Mesures sur les structures de l'arbre, sans réseau de neurones (appelées depuis openzero.Benchmark).
+ * Les arbres synthétiques ont la forme d'un arbre MCTS : chaque noeud étendu a un nombre fixe d'enfants.
+ */
+public final class TreeBenchmarks {
+    private TreeBenchmarks() {
+    }
+
+    /**
+     * Coût d'une étape de sélection PUCT en fonction du nombre d'enfants :
+     * priors copiés dans les enfants et un score par enfant (selectChild)
+     * contre l'ancienne boucle (recherche du coup dans la politique du parent et score calculé deux fois).
+     * @param branchings les nombres d'enfants à mesurer
+     * @param steps le nombre de sélections par mesure
+     */
+    public static void benchmarkSelection(int[] branchings, int steps) {
+        for (int branching : branchings) {
+            Node parent = buildSelectionNode(branching);
+            List<Node> children = parent.getChildren_nodes();
+            long hash = 0;
+            double cachedNs = 0;
+            double legacyNs = 0;
+            for (int round = 0; round < 3; round++) { //les premiers tours servent d'échauffement
+                long start = System.nanoTime();
+                for (int i = 0; i < steps; i++) {
+                    hash += parent.selectChild().getMove_index_played();
+                    parent.decrementVisitCount(); //le parent garde le même nombre de visites d'une mesure à l'autre
+                }
+                cachedNs = (double) (System.nanoTime() - start) / steps;
+
+                start = System.nanoTime();
+                for (int i = 0; i < steps; i++) {
+                    hash += legacySelect(parent, children).getMove_index_played();
+                }
+                legacyNs = (double) (System.nanoTime() - start) / steps;
+            }
+            System.out.printf("%3d enfants : selectChild %8.1f ns | ancienne boucle %8.1f ns (x%.1f) [%d]%n",
+                    branching, cachedNs, legacyNs, legacyNs / cachedNs, hash % 10);
+        }
+    }
+
+    /**
+     * Un parent déjà visité dont les enfants sont tous visités et sans enfants (selectChild s'arrête sur eux).
+     */
+    private static Node buildSelectionNode(int branching) {
+        Random random = new Random(branching);
+        int[] moves = new int[branching];
+        float[] priors = new float[branching];
+        for (int i = 0; i < branching; i++) {
+            moves[i] = i * 73;
+            priors[i] = 1f / branching;
+        }
+        Node parent = new Node(null, null, -1, 1f, true);
+        parent.setPolicy_moves(moves);
+        parent.setPolicy_priors(priors);
+        List<Node> children = new ArrayList<>();
+        int visits = 0;
+        for (int i = 0; i < branching; i++) {
+            Node child = new Node(parent, null, moves[i], priors[i], false);
+            child.setEvaluation(0.5f);
+            int n = 1 + random.nextInt(50);
+            for (int v = 0; v < n; v++) child.incrementVisitCount();
+            child.addTotalEvaluation(random.nextFloat() * n * 2 - n);
+            visits += n;
+            children.add(child);
+        }
+        for (int v = 0; v <= visits; v++) parent.incrementVisitCount();
+        parent.setChildren(children);
+        return parent;
+    }
+
+    /**
+     * Ancienne sélection, gardée uniquement pour comparaison : le prior est retrouvé en parcourant
+     * la politique du parent et le score est recalculé pour le comparer puis pour le garder.
+     */
+    private static Node legacySelect(Node parent, List<Node> children) {
+        float max_score = Float.NEGATIVE_INFINITY;
+        Node selected_child = null;
+        for (Node child : children) {
+            if (legacyScore(parent, child) > max_score) {
+                max_score = legacyScore(parent, child);
+                selected_child = child;
+            }
+        }
+        return selected_child;
+    }
+
+    private static float legacyScore(Node parent, Node child) {
+        float n = child.getVisit_count() + child.getVirtual_loss();
+        float q = child.getTotal_evaluation() / n;
+        float p = 0.1f;
+        int[] moves = parent.getPolicy_moves();
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i] == child.getMove_index_played()) {
+                p = parent.getPolicy_priors()[i];
+                break;
+            }
+        }
+        float exploration = child.getExploration_rate() * p * (float) sqrt(parent.getVisit_count()) / (1 + n);
+        return -q - child.getVirtual_loss() / n + exploration;
+    }
+
+    /**
+     * Descente et rétropropagation le long d'une ligne forcée (un seul coup par position) de profondeur donnée,
+     * comme dans une longue suite d'échecs : temps par simulation et par coup de profondeur.
+     * Les boucles de Node.selectChild() et Node.backpropagate() ne dépendent plus de la taille de la pile.
+     * @param depths les profondeurs à mesurer
+     * @param steps le nombre total de pas de descente par mesure (simulations = steps / profondeur)
+     */
+    public static void benchmarkDeepLine(int[] depths, int steps) {
+        for (int depth : depths) {
+            Node root = new Node(null, null, -1, 1f, true);
+            Node node = root;
+            for (int d = 0; d < depth; d++) {
+                Node child = new Node(node, null, 0, 1f, !node.isActive_turn());
+                List<Node> children = new ArrayList<>(1);
+                children.add(child);
+                node.setChildren(children);
+                node.incrementVisitCount();
+                node = child;
+            }
+            int simulations = Math.max(1, steps / depth);
+            SearchPath path = new SearchPath();
+            long start = System.nanoTime();
+            long reached = 0;
+            for (int s = 0; s < simulations; s++) {
+                path.reset(root);
+                Node leaf = root.selectChild(null, null, path);
+                reached += leaf.backpropagate(0.1f);
+            }
+            double nanos = System.nanoTime() - start;
+            System.out.printf("profondeur %7d : %10.1f µs/simulation | %5.1f ns/coup [%d]%n",
+                    depth, nanos / simulations / 1e3, nanos / simulations / depth, reached / simulations);
+        }
+    }
+
+    /**
+     * Octets alloués par simulation (compteur d'allocation du thread, com.sun.management.ThreadMXBean)
+     * sur une recherche synthétique sans réseau : enfants créés à la première sélection de leur arête,
+     * contre tous les enfants créés à l'expansion (ancien comportement).
+     * @param simulations le nombre de simulations par mesure
+     * @param branchings les nombres de coups par position à mesurer
+     */
+    public static void benchmarkAllocation(int simulations, int[] branchings) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int branching : branchings) {
+            for (boolean eager : new boolean[]{true, false}) {
+                syntheticSearch(simulations, branching, eager); //échauffement
+                long before = threads.getThreadAllocatedBytes(thread);
+                Node root = syntheticSearch(simulations, branching, eager);
+                long bytes = threads.getThreadAllocatedBytes(thread) - before;
+                System.out.printf("%3d coups, enfants %-12s : %7.1f octets/simulation | %8d noeuds%n",
+                        branching, eager ? "à l'expansion" : "à la demande", (double) bytes / simulations, countNodes(root));
+            }
+        }
+    }
+
+    /**
+     * Recherche MCTS sans réseau : chaque feuille reçoit la même politique (priors décroissants) et une valeur aléatoire.
+     */
+    private static Node syntheticSearch(int simulations, int branching, boolean eager) {
+        int[] moves = new int[branching];
+        float[] priors = new float[branching];
+        Move[] legal = new Move[branching];
+        float sum = 0;
+        for (int i = 0; i < branching; i++) {
+            moves[i] = i * 73;
+            priors[i] = 1f / (i + 1);
+            sum += priors[i];
+        }
+        for (int i = 0; i < branching; i++) priors[i] /= sum;
+
+        Random random = new Random(1);
+        Node root = new Node(null, null, -1, 1f, true);
+        for (int s = 0; s < simulations; s++) {
+            Node leaf = root.selectChild();
+            if (leaf.getVisit_count() > 0 && !leaf.isExpanded()) {
+                leaf.expand(branching);
+                if (eager) {
+                    for (int i = 0; i < branching; i++) leaf.child(i);
+                }
+                leaf = leaf.selectChild();
+            }
+            leaf.setPolicy_moves(moves);
+            leaf.setPolicy_priors(priors);
+            leaf.setLegal_moves(legal);
+            leaf.setEvaluation(random.nextFloat() * 2 - 1);
+            leaf.incrementVisitCount();
+            leaf.backpropagate(leaf.getEvaluation());
+        }
+        return root;
+    }
+
+    private static int countNodes(Node root) {
+        int count = 0;
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            count++;
+            for (Node child : node.getChildren_nodes()) stack.push(child);
+        }
+        return count;
+    }
+}
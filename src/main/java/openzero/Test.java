@@ -83,8 +83,9 @@ public class Test {
             board.doMove(move);
             System.out.println(board);
         }
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(model2, 201,10);
         while(!board.isMated() || !board.isDraw() || !board.isStaleMate()) {
-            String move = model2.makeMoveWithMCTS(board.getFen(), new MonteCarloTreeSearch(model2, 201,10));
+            String move = model2.makeMoveWithMCTS(board.getFen(), mcts);
             board.doMove(move);
             System.out.println(board);
 
@@ -18,7 +18,10 @@ import javafx.scene.shape.Rectangle;
 import lombok.Getter;
 import lombok.Setter;
 import openzero.MCTS.MonteCarloTreeSearch;
+import openzero.MCTS.SearchLimits;
+import openzero.utils.Analysis;
 import openzero.utils.ChessModelInterpreter;
+import openzero.utils.InferenceService;
 
 
 import java.io.FileWriter;
@@ -31,6 +34,8 @@ import java.util.stream.Collectors;
 public class BoardRenderer implements MenuController.PlayerVsBotListener, MenuController.BotVsBotListener {
     private static final int TILE_SIZE = 80;
     private static final int BOARD_SIZE = 8;
+    //réflexion pendant le temps du joueur : plafonnée pour borner la mémoire de l'arbre
+    private static final SearchLimits PONDER_LIMITS = SearchLimits.nodes(20_000).withEarlyStop(false);
     private final GridPane grid = new GridPane();
     private Board board = new Board();
     private Label statusLabel;
@@ -50,6 +55,8 @@ public class BoardRenderer implements MenuController.PlayerVsBotListener, MenuCo
     private volatile boolean stopRequested = false;
 
     private ChessModelInterpreter bot;
+    private MonteCarloTreeSearch mcts; //arbre conservé d'un coup à l'autre pendant une partie
+    private boolean ponder = true; //le bot continue de chercher pendant que le joueur réfléchit
 
     public BoardRenderer(Label statusLabel, Label evalLabel, Label resultLabel) {
         this.statusLabel = statusLabel;
@@ -62,6 +69,7 @@ public class BoardRenderer implements MenuController.PlayerVsBotListener, MenuCo
     public void resetGame() {
         stopCurrentGame();
         this.board = new Board();
+        this.mcts = null;
         this.gameOver = false;
         this.selectedSquare = null;
         drawBoard();
@@ -97,6 +105,7 @@ public class BoardRenderer implements MenuController.PlayerVsBotListener, MenuCo
 
                 for (int i = 1; i <= settings.gameCount && !stopRequested; i++) {
                     board = new Board();
+                    MonteCarloTreeSearch gameMcts = new MonteCarloTreeSearch(bot, 201, 10);
                     boolean bot1IsWhite = resolvePlayer(settings.whitePlayer, settings.blackPlayer);
                     String whiteName = bot1IsWhite ? "Bot1 (CNN)" : "Bot2 (CNN+MCTS)";
                     String blackName = bot1IsWhite ? "Bot2 (CNN+MCTS)" : "Bot1 (CNN)";
@@ -112,20 +121,15 @@ public class BoardRenderer implements MenuController.PlayerVsBotListener, MenuCo
                     while (!stopRequested && !board.isMated() && !board.isDraw() && !board.isStaleMate()) {
                         String fen = board.getFen();
                         boolean isWhiteToMove = board.getSideToMove().value().equals("WHITE");
-                        String move;
-                        double eval;
-
-                        if (isWhiteToMove == bot1IsWhite) {
-                            move = bot.makeMove(fen);
-                            eval = bot.evaluate(fen);
-                        } else {
-                            move = bot.makeMoveWithMCTS(fen, new MonteCarloTreeSearch(bot, 201, 10));
-                            eval = bot.evaluate(fen);
-                        }
+                        //un seul passage du réseau pour le coup et l'évaluation
+                        Analysis analysis = isWhiteToMove == bot1IsWhite
+                                ? bot.analyse(fen, 20)
+                                : bot.analyse(fen, gameMcts);
+                        bot.printAnalysis(analysis);
 
-                        board.doMove(move);
+                        board.doMove(analysis.getBest_move());
                         
-                        double finalEval = eval;
+                        double finalEval = analysis.getValue();
 
                         Platform.runLater(() -> {
                             drawPieces();
@@ -249,10 +253,17 @@ public class BoardRenderer implements MenuController.PlayerVsBotListener, MenuCo
         botThread = new Thread(() -> {
             while (!gameOver && !stopRequested && board.getSideToMove().value().equals("WHITE") != playerIsWhite) {
                 try {
-                    String move = bot.makeMoveWithMCTS(board.getFen(), new MonteCarloTreeSearch(bot, 201, 10));
+                    if (mcts == null) mcts = new MonteCarloTreeSearch(bot, 201, 10);
+                    mcts.stopPondering();
+                    String move = bot.makeMoveWithMCTS(board.getFen(), mcts);
                     board.doMove(move);
                     
                     double eval = bot.evaluate(board.getFen());
+                    if (ponder && !board.isMated() && !board.isDraw() && !board.isStaleMate()) {
+                        mcts.startPondering(board.getFen(), PONDER_LIMITS);
+                        System.out.printf("Ponder : %d hit(s), %d miss(es) (%.0f %%), %d simulations économisées%n",
+                                mcts.getPonderHits(), mcts.getPonderMisses(), 100 * mcts.getPonderHitRate(), mcts.getPonderSavedSimulations());
+                    }
 
                     Platform.runLater(() -> {
                         drawPieces();
@@ -362,8 +373,15 @@ public class BoardRenderer implements MenuController.PlayerVsBotListener, MenuCo
     public void setModelPath(String modelPath) {
         this.modelPath = modelPath;
         try {
+            InferenceService previous = this.bot != null ? this.bot.getInferenceService() : null;
             this.bot = new ChessModelInterpreter();
             this.bot.LoadModel(modelPath);
+            //la partie contre le joueur, les parties bot contre bot et la réflexion partagent le modèle par le service ;
+            //elles évaluent une position à la fois : pas d'attente pour former un lot (maxWait = 0)
+            this.bot.setInferenceService(new InferenceService(this.bot, 1, 16, 0, 256));
+            if (this.mcts != null) this.mcts.stopPondering();
+            this.mcts = null;
+            if (previous != null) previous.close(); //après l'arrêt de la réflexion, qui attend encore ses résultats
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -371,6 +389,7 @@ public class BoardRenderer implements MenuController.PlayerVsBotListener, MenuCo
 
     public void stopCurrentGame() {
         stopRequested = true;
+        if (mcts != null) mcts.stopPondering();
         if (botThread != null && botThread.isAlive()) botThread.interrupt();
         if (botVsBotThread != null && botVsBotThread.isAlive()) botVsBotThread.interrupt();
         gameOver = true;
@@ -0,0 +1,79 @@
+package openzero.utils;
+
+import lombok.Getter;
+import openzero.MCTS.SearchStats;
+
+import java.util.Arrays;
+
+/**
+ * Résultat immuable de l'analyse d'une position (ChessModelInterpreter.analyse) : une seule lecture de la FEN,
+ * un seul passage du réseau (ou une lecture du cache) pour la valeur, la politique sur les coups légaux et le coup choisi.
+ * Avec une recherche MCTS, contient aussi la distribution des visites et les statistiques de la recherche.
+ * Les tableaux sont copiés à la lecture.
+ */
+public final class Analysis {
+    @Getter
+    private final String fen;
+    @Getter
+    private final float value; //du point de vue des blancs
+    private final String[] moves; //les coups légaux les plus probables selon le réseau (décroissant)
+    private final int[] indices; //leur indice dans la sortie politique
+    private final float[] priors; //leurs probabilités, renormalisées sur les coups légaux
+    @Getter
+    private final int legal_count; //nombre de coups légaux de la position
+    @Getter
+    private final String best_move; //le coup choisi (null si la position n'a aucun coup légal)
+    private final String[] search_moves; //coups de la racine de la recherche (null sans recherche)
+    private final float[] search_frequencies; //leur fréquence de visite
+    @Getter
+    private final SearchStats stats; //statistiques de la recherche (null sans recherche)
+
+    Analysis(String fen, float value, LegalPolicy policy, String best_move,
+             String[] search_moves, float[] search_frequencies, SearchStats stats) {
+        this.fen = fen;
+        this.value = value;
+        this.moves = new String[policy.size()];
+        for (int i = 0; i < moves.length; i++) moves[i] = policy.moves[i].toString();
+        this.indices = policy.indices.clone();
+        this.priors = policy.priors.clone();
+        this.legal_count = policy.legal_count;
+        this.best_move = best_move;
+        this.search_moves = search_moves;
+        this.search_frequencies = search_frequencies;
+        this.stats = stats;
+    }
+
+    public String[] getMoves() {
+        return moves.clone();
+    }
+
+    public int[] getIndices() {
+        return indices.clone();
+    }
+
+    public float[] getPriors() {
+        return priors.clone();
+    }
+
+    /**
+     * @return true si le coup vient d'une recherche MCTS (et non directement de la politique du réseau)
+     */
+    public boolean isSearched() {
+        return stats != null;
+    }
+
+    public String[] getSearch_moves() {
+        return search_moves == null ? null : search_moves.clone();
+    }
+
+    public float[] getSearch_frequencies() {
+        return search_frequencies == null ? null : search_frequencies.clone();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s : valeur %.3f | coup %s | politique %s%s", fen, value, best_move,
+                Arrays.toString(Arrays.copyOf(moves, Math.min(5, moves.length))),
+                stats == null ? "" : " | " + stats);
+    }
+}
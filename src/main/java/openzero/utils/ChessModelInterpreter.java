@@ -7,11 +7,12 @@ import com.github.bhlangonijr.chesslib.move.Move;
 import com.github.bhlangonijr.chesslib.move.MoveException;
 import com.github.bhlangonijr.chesslib.Square;
 import openzero.MCTS.MonteCarloTreeSearch;
+import openzero.MCTS.SearchLimits;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.NDArrayIndex;
 
 import java.io.File;
 import java.util.*;
@@ -26,6 +27,9 @@ public class ChessModelInterpreter {
     private static final Map<Map.Entry<Integer, Integer>, Map.Entry<Integer, Integer>> auxiliaryPromotionMap = new HashMap<>();
     private static final Map<Integer, Map.Entry<Integer, Integer>> inverseDirectionMap = new HashMap<>();
     public ComputationGraph model;
+    private EvaluationCache cache = new EvaluationCache(1 << 15, 32); //sorties du réseau déjà calculées (null pour désactiver)
+    private int batchChunk = 256; //nombre maximum de positions par appel au réseau dans les analyses par lot
+    private volatile InferenceService inferenceService; //regroupe les évaluations des parties et recherches concurrentes (null : appel direct)
 
 
 
@@ -44,6 +48,86 @@ public class ChessModelInterpreter {
         this.model.summary();
     }
 
+    /**
+     * Passage avant du modèle. Un ComputationGraph n'est pas utilisable par plusieurs threads à la fois,
+     * les appels sont donc sérialisés sur l'interpréteur.
+     * @param tensor le tenseur d'entrée [N,8,8,17]
+     * @return les sorties valeur [N,1] et politique [N,4672]
+     */
+    public synchronized INDArray[] output(INDArray tensor) {
+        return this.model.output(false, new INDArray[]{tensor}, null, null, null);
+    }
+
+    public EvaluationCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Remplace le cache des évaluations (par exemple pour changer sa capacité).
+     * @param cache le nouveau cache, ou null pour appeler le réseau à chaque fois
+     */
+    public void setCache(EvaluationCache cache) {
+        this.cache = cache;
+    }
+
+    public InferenceService getInferenceService() {
+        return inferenceService;
+    }
+
+    /**
+     * Fait passer les évaluations d'une position (analyses, evaluate, makeMove, recherches MCTS) par un service
+     * d'inférence, qui les regroupe en lots avec celles des autres threads. Les analyses par lot appellent toujours
+     * le réseau directement, elles forment déjà leurs propres lots.
+     * @param inferenceService le service (construit sur cet interpréteur), ou null pour appeler le réseau directement
+     */
+    public void setInferenceService(InferenceService inferenceService) {
+        this.inferenceService = inferenceService;
+    }
+
+    /**
+     * Sortie du réseau pour une position, lue dans le cache ou calculée puis enregistrée.
+     * @param board la position
+     * @param topN le nombre de coups légaux voulus
+     * @return la valeur du point de vue des blancs et au moins topN coups légaux (ou tous)
+     */
+    public EvaluationCache.Entry evaluatePosition(Board board, int topN) {
+        long key = board.getZobristKey();
+        EvaluationCache.Entry entry = cachedOutput(key, topN);
+        if (entry != null) return entry;
+        InferenceService service = this.inferenceService;
+        if (service != null) {
+            InferenceService.Result result = service.submit(board).join();
+            return cacheOutput(key, result.value, LegalPolicy.fromBoard(board), result.policy, topN);
+        }
+        INDArray[] output = output(BoardToTensor(board));
+        return cacheOutput(key, output[0].getFloat(0, 0), LegalPolicy.fromBoard(board), output[1].toFloatVector(), topN);
+    }
+
+    /**
+     * @return l'entrée du cache pour la position, ou null (absente, ou cache désactivé)
+     */
+    public EvaluationCache.Entry cachedOutput(long key, int topN) {
+        EvaluationCache cache = this.cache;
+        return cache == null ? null : cache.get(key, topN);
+    }
+
+    /**
+     * Construit l'entrée d'une position à partir d'une sortie du réseau et l'enregistre dans le cache.
+     * L'entrée garde au moins les topK coups du cache, pour servir aussi les appelants qui en veulent plus que topN.
+     * @param key la clé Zobrist de la position
+     * @param value la valeur du point de vue des blancs
+     * @param legalMoves les coups légaux de la position
+     * @param policyRow la ligne de politique de la position (4672 valeurs)
+     * @param topN le nombre de coups légaux voulus par l'appelant
+     */
+    public EvaluationCache.Entry cacheOutput(long key, float value, LegalPolicy legalMoves, float[] policyRow, int topN) {
+        EvaluationCache cache = this.cache;
+        if (cache == null) return EvaluationCache.createEntry(key, value, legalMoves, policyRow, topN);
+        EvaluationCache.Entry entry = EvaluationCache.createEntry(key, value, legalMoves, policyRow, Math.max(topN, cache.getTop_k()));
+        cache.put(entry);
+        return entry;
+    }
+
     /**
      * Convertit une position FEN en tenseur utilisable dans les CNN.
      * @param fen le string fen
@@ -86,25 +170,43 @@ public class ChessModelInterpreter {
         return reshapedTensor;
     }
 
+    /**
+     * Convertit directement un Board chesslib en tenseur [1,8,8,17], sans passer par la FEN.
+     * Même encodage que FenToTensor (ligne 0 = 8e rangée), lu dans les bitboards par PositionEncoder.
+     * @param board la position
+     * @return le tenseur associé
+     */
+    public INDArray BoardToTensor(Board board){
+        float[] data = new float[PositionEncoder.PLANES];
+        PositionEncoder.encode(board, data, 0);
+        return Nd4j.create(data, new long[]{1, 8, 8, 17}, 'c');
+    }
+
 
 
 
 
     /**
      * Retourne les topN plus grandes probabilités dans une INDArray d'indice et une INDArray de valeurs (décroissant).
+     * Sélection partielle (TopK) sur une copie Java du vecteur, au lieu d'un tri complet des 4672 valeurs.
      * @param softmax
      * @param topN
      * @return
      */
     public INDArray[] argsort(INDArray softmax, int topN){
-        INDArray[] sortedSoftmax = Nd4j.sortWithIndices(softmax,1,false);
-        INDArray sortedIndices = sortedSoftmax[0].get(NDArrayIndex.all(),NDArrayIndex.interval(0, topN));
-        INDArray sortedValues = sortedSoftmax[1].get(NDArrayIndex.all(), NDArrayIndex.interval(0, topN));
+        float[] values = softmax.toFloatVector();
+        int[] indices = new int[topN];
+        float[] scores = new float[topN];
+        int count = TopK.select(values, 0, values.length, topN, indices, scores);
+        INDArray sortedIndices = Nd4j.createFromArray(new int[][]{Arrays.copyOf(indices, count)});
+        INDArray sortedValues = Nd4j.createFromArray(new float[][]{Arrays.copyOf(scores, count)});
         return new INDArray[]{sortedIndices,sortedValues};
     }
 
     /**
-     * Permet de traduire un indice du vecteur en coup sous forme de string
+     * Permet de traduire un indice du vecteur en coup sous forme de string.
+     * Version historique à base de dictionnaires, gardée pour l'affichage et comme référence de MoveCodec
+     * (la recherche utilise MoveCodec, qui ne lit pas le tenseur).
      * @param index l'indice du vecteur de probabilité
      * @param chessTensor le tenseur de l'échiquier fourni en entrée du modèle, nécessaire pour ajouter le suffixe de la promotion au coup.
      * @return
@@ -170,6 +272,18 @@ public class ChessModelInterpreter {
         return move;
     }
 
+    public void printMoves(LegalPolicy policy){
+        for(int i=0;i<policy.size();i++){
+            System.out.println(policy.moves[i]+" : "+policy.priors[i]);
+        }
+    }
+
+    public void printMoves(String[] moves, float[] probabilities){
+        for(int i=0;i<moves.length;i++){
+            System.out.println(moves[i]+" : "+probabilities[i]);
+        }
+    }
+
     public List<String> getListMoves(INDArray softmaxIndices, INDArray chessTensor){
         List<String> moves = new ArrayList<>();
         for(int i=0;i<softmaxIndices.columns();i++){
@@ -184,13 +298,151 @@ public class ChessModelInterpreter {
         }
     }
 
-    public float evaluate(String fen) {
-        INDArray tensorBoard = FenToTensor(fen);
+    /**
+     * Analyse une position sans recherche : valeur, topN coups légaux et coup le plus probable.
+     * @param fen la position
+     * @param topN le nombre de coups légaux gardés dans le résultat
+     */
+    public Analysis analyse(String fen, int topN) {
+        return analyse(fen, topN, null, null);
+    }
+
+    public Analysis analyse(String fen, MonteCarloTreeSearch mcts) {
+        return analyse(fen, mcts, SearchLimits.nodes(mcts.getSimulations()).withEarlyStop(false));
+    }
+
+    /**
+     * Analyse une position avec une recherche MCTS, sauf si le réseau donne au moins 95 % à un coup.
+     * @param limits les conditions d'arrêt de la recherche (temps, noeuds, voir TimeManager pour une pendule)
+     */
+    public Analysis analyse(String fen, MonteCarloTreeSearch mcts, SearchLimits limits) {
+        return analyse(fen, mcts.getTopN(), mcts, limits);
+    }
+
+    /**
+     * Une seule lecture de la FEN et un seul passage du réseau (ou une lecture du cache) pour toute l'analyse ;
+     * la racine de la recherche reprend cette évaluation dans le cache.
+     */
+    private Analysis analyse(String fen, int topN, MonteCarloTreeSearch mcts, SearchLimits limits) {
         Board board = new Board();
         board.loadFromFen(fen);
-        INDArray[] output = this.model.output(false,new INDArray[]{tensorBoard}, null,null,null);
-        INDArray valueOutput = output[0];
-        return valueOutput.getFloat(0,0);
+        EvaluationCache.Entry entry = evaluatePosition(board, topN);
+        //seuls les coups légaux sont lus dans la politique : le premier est le coup du réseau
+        LegalPolicy policy = entry.policy(topN);
+        String networkMove = policy.size() == 0 ? null : policy.moves[0].toString();
+        //probabilité brute du réseau (avant renormalisation) pour le coup évident
+        if (mcts == null || networkMove == null || entry.rawPrior(0) >= 0.95) {
+            return new Analysis(fen, entry.value, policy, networkMove, null, null, null);
+        }
+
+        INDArray[] mctsSoftmax = mcts.startMCTS(fen, limits);
+        LegalPolicy legalMoves = LegalPolicy.fromBoard(board);
+        int[] searchIndices = mctsSoftmax[0].toIntVector();
+        float[] frequencies = mctsSoftmax[1].toFloatVector();
+        String[] searchMoves = new String[searchIndices.length];
+        int best = 0;
+        for (int i = 0; i < searchIndices.length; i++) {
+            Move move = legalMoves.moveFor(searchIndices[i]);
+            searchMoves[i] = move == null ? "-" : move.toString();
+            if (frequencies[i] > frequencies[best]) best = i;
+        }
+        return new Analysis(fen, entry.value, policy, searchMoves[best], searchMoves, frequencies, mcts.getStats());
+    }
+
+    /**
+     * Analyse par lot, sans recherche : voir analyseBoards.
+     * @param fens les positions
+     */
+    public List<Analysis> analyseFens(List<String> fens, int topN) {
+        List<Board> boards = new ArrayList<>(fens.size());
+        for (String fen : fens) {
+            Board board = new Board();
+            board.loadFromFen(fen);
+            boards.add(board);
+        }
+        return analyseBoards(boards, fens, topN);
+    }
+
+    public List<Analysis> analyseBoards(List<Board> boards, int topN) {
+        return analyseBoards(boards, null, topN);
+    }
+
+    /**
+     * Évalue beaucoup de positions avec un appel au réseau par paquet de batchChunk positions au lieu d'un par position.
+     * Les positions déjà dans le cache ne sont pas réévaluées ; les autres sont encodées par PositionEncoder
+     * directement dans un tenseur [batchChunk,8,8,17] alloué une fois et réutilisé d'un paquet à l'autre.
+     * @param boards les positions
+     * @param fens leurs FEN (null : recalculées depuis les plateaux)
+     * @param topN le nombre de coups légaux gardés par position
+     * @return une analyse par position, dans l'ordre de boards (coup du réseau, sans recherche)
+     */
+    private List<Analysis> analyseBoards(List<Board> boards, List<String> fens, int topN) {
+        int n = boards.size();
+        EvaluationCache.Entry[] entries = new EvaluationCache.Entry[n];
+        int[] pending = new int[n]; //positions absentes du cache
+        int pendingCount = 0;
+        for (int i = 0; i < n; i++) {
+            entries[i] = cachedOutput(boards.get(i).getZobristKey(), topN);
+            if (entries[i] == null) pending[pendingCount++] = i;
+        }
+
+        int chunk = Math.max(1, Math.min(batchChunk, pendingCount));
+        INDArray input = null; //tenseur [chunk,8,8,17], créé au premier paquet plein
+        for (int from = 0; from < pendingCount; from += chunk) {
+            int size = Math.min(chunk, pendingCount - from);
+            INDArray tensor;
+            if (size == chunk) {
+                if (input == null) input = Nd4j.create(DataType.FLOAT, chunk, 8, 8, 17);
+                tensor = input;
+            } else {
+                tensor = Nd4j.create(DataType.FLOAT, size, 8, 8, 17); //dernier paquet incomplet
+            }
+            for (int j = 0; j < size; j++) PositionEncoder.encode(boards.get(pending[from + j]), tensor, j);
+            INDArray[] output = output(tensor);
+            float[] values = output[0].toFloatVector();
+            float[][] policies = output[1].toFloatMatrix();
+            for (int j = 0; j < size; j++) {
+                Board board = boards.get(pending[from + j]);
+                entries[pending[from + j]] = cacheOutput(board.getZobristKey(), values[j], LegalPolicy.fromBoard(board), policies[j], topN);
+            }
+        }
+
+        List<Analysis> analyses = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            LegalPolicy policy = entries[i].policy(topN);
+            String fen = fens != null ? fens.get(i) : boards.get(i).getFen();
+            analyses.add(new Analysis(fen, entries[i].value, policy, policy.size() == 0 ? null : policy.moves[0].toString(), null, null, null));
+        }
+        return analyses;
+    }
+
+    public int getBatchChunk() {
+        return batchChunk;
+    }
+
+    /**
+     * @param batchChunk le nombre maximum de positions par appel au réseau dans analyseFens/analyseBoards
+     */
+    public void setBatchChunk(int batchChunk) {
+        this.batchChunk = batchChunk;
+    }
+
+    /**
+     * Affiche une analyse : valeur, distribution du réseau et, après une recherche, celle de MCTS.
+     */
+    public void printAnalysis(Analysis analysis) {
+        System.out.println("Evaluation objective de la position : "+analysis.getValue());
+        System.out.println("Distribution des probabilités du CNN : ");
+        printMoves(analysis.getMoves(), analysis.getPriors());
+        if (analysis.isSearched()) {
+            System.out.println("Distribution des fréquences de MCTS : ");
+            printMoves(analysis.getSearch_moves(), analysis.getSearch_frequencies());
+            System.out.println(analysis.getStats());
+        }
+    }
+
+    public float evaluate(String fen) {
+        return analyse(fen, 1).getValue();
     }
     /**
      * Le modèle initialisé prédit le coup à jouer à partir d'un format FEN
@@ -198,50 +450,22 @@ public class ChessModelInterpreter {
      * @return
      */
     public String makeMove(String fen){
-        INDArray tensorBoard = FenToTensor(fen);
-        Board board = new Board();
-        board.loadFromFen(fen);
-        INDArray[] output = this.model.output(false,new INDArray[]{tensorBoard}, null,null,null);
-        INDArray valueOutput = output[0];
-        INDArray policyOutput = output[1];
-        INDArray[] sortedSoftmax = argsort(policyOutput,20);
-        List<String> listMoves = getListMoves(sortedSoftmax[0], tensorBoard);
-        System.out.println("Evaluation de la position : "+valueOutput);
-        printMoves(listMoves, sortedSoftmax[1]);
-
-        int index = 0;
-        String move;
-        do {
-            move = listMoves.get(index);
-            index++;
-        }while(!board.legalMoves().toString().contains(move));
-        return move;
+        Analysis analysis = analyse(fen, 20);
+        printAnalysis(analysis);
+        return analysis.getBest_move();
     }
 
     public String makeMoveWithMCTS(String fen, MonteCarloTreeSearch mcts){
-        INDArray tensorBoard = FenToTensor(fen);
-        INDArray[] output = this.model.output(false,new INDArray[]{tensorBoard}, null,null,null);
-        INDArray valueOutput = output[0];
-        System.out.println("Evaluation objective de la position : "+valueOutput.getFloat(0,0));
-        System.out.println("Distribution des probabilités du CNN : ");
-        INDArray policyOutput = output[1];
-        INDArray[] sortedSoftmax = argsort(policyOutput, mcts.getTopN());
-        List<String> listMoves = getListMoves(sortedSoftmax[0], tensorBoard);
-        printMoves(listMoves, sortedSoftmax[1]);
-        Board board = new Board();
-        board.loadFromFen(fen);
-        if(sortedSoftmax[1].getFloat(0) >= 0.95 && board.legalMoves().toString().contains(listMoves.get(0))) {
-            return listMoves.get(0);
-        }
-        else {
-            System.out.println("Distribution des fréquences de MCTS : ");
-            INDArray[] mctsSoftmax = mcts.startMCTS(fen);
-            List<String> listMovesMCTS = getListMoves(mctsSoftmax[0], tensorBoard);
-            printMoves(listMovesMCTS, mctsSoftmax[1]);
-            int best_move_index = Nd4j.argMax(mctsSoftmax[1],0).getInt(0);
-            return listMovesMCTS.get(best_move_index);
-        }
+        return makeMoveWithMCTS(fen, mcts, SearchLimits.nodes(mcts.getSimulations()).withEarlyStop(false));
+    }
 
+    /**
+     * @param limits les conditions d'arrêt de la recherche (temps, noeuds, voir TimeManager pour une pendule)
+     */
+    public String makeMoveWithMCTS(String fen, MonteCarloTreeSearch mcts, SearchLimits limits){
+        Analysis analysis = analyse(fen, mcts, limits);
+        printAnalysis(analysis);
+        return analysis.getBest_move();
     }
 
 
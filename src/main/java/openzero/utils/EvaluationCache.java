@@ -0,0 +1,223 @@
+package openzero.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache borné des sorties du réseau, indexé par la clé Zobrist de la position (pièces, trait et roques :
+ * tout ce que lit le tenseur d'entrée). Partagé par evaluate, makeMove, makeMoveWithMCTS et les recherches MCTS,
+ * il évite de réévaluer une position déjà vue : la racine d'une recherche, une transposition dans l'arbre,
+ * l'évaluation demandée juste après le coup.
+ * <p>
+ * Chaque entrée garde la valeur et les topK coups légaux les plus probables (pas la politique complète de 4672 valeurs).
+ * Le cache est découpé en segments, chacun avec son verrou et son éviction CLOCK : une lecture ne fait que marquer
+ * l'entrée, l'éviction donne une seconde chance aux entrées relues depuis le dernier passage de l'aiguille.
+ */
+public class EvaluationCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int capacity;
+    private final int top_k; //nombre minimum de coups légaux gardés par entrée
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity le nombre maximum d'entrées
+     * @param top_k le nombre de coups légaux gardés par entrée (plus si un appelant en demande davantage)
+     */
+    public EvaluationCache(int capacity, int top_k) {
+        this.segments = new Segment[SEGMENTS];
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(perSegment);
+        this.capacity = perSegment * SEGMENTS;
+        this.top_k = top_k;
+    }
+
+    /**
+     * @param key la clé Zobrist de la position
+     * @param topN le nombre de coups dont l'appelant a besoin
+     * @return l'entrée, ou null si la position est absente ou si l'entrée garde moins de topN coups
+     * (et pas tous les coups légaux)
+     */
+    public Entry get(long key, int topN) {
+        Entry entry = segment(key).get(key);
+        if (entry != null && entry.covers(topN)) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Enregistre une entrée (remplace celle de la même position).
+     */
+    public void put(Entry entry) {
+        if (segment(entry.key).put(entry)) evictions.increment();
+    }
+
+    /**
+     * Construit une entrée à partir de la sortie du réseau pour une position.
+     * @param key la clé Zobrist de la position
+     * @param value la valeur du point de vue des blancs
+     * @param legalMoves les coups légaux de la position (sans probabilités)
+     * @param policyRow une ligne de la sortie politique (4672 valeurs)
+     * @param topN le nombre de coups gardés
+     */
+    public static Entry createEntry(long key, float value, LegalPolicy legalMoves, float[] policyRow, int topN) {
+        float legal_mass = 0;
+        for (int index : legalMoves.indices) legal_mass += policyRow[index];
+        return new Entry(key, value, legalMoves.withPriors(policyRow, topN), legal_mass);
+    }
+
+    private Segment segment(long key) {
+        return segments[(int) (key ^ (key >>> 32)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Vide le cache et remet les compteurs à zéro.
+     */
+    public void clear() {
+        for (Segment segment : segments) segment.clear();
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long total = getHits() + getMisses();
+        return total == 0 ? 0 : (double) getHits() / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) size += segment.size();
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getTop_k() {
+        return top_k;
+    }
+
+    /**
+     * Sortie du réseau pour une position. Immuable : une lecture concurrente voit l'ancienne ou la nouvelle entrée.
+     */
+    public static final class Entry {
+        public final long key;
+        public final float value; //du point de vue des blancs
+        public final LegalPolicy policy; //les coups légaux les plus probables (décroissant), renormalisés sur tous les coups légaux
+        public final float legal_mass; //masse de la politique brute sur les coups légaux
+
+        Entry(long key, float value, LegalPolicy policy, float legal_mass) {
+            this.key = key;
+            this.value = value;
+            this.policy = policy;
+            this.legal_mass = legal_mass;
+        }
+
+        boolean covers(int topN) {
+            return policy.size() >= topN || policy.size() == policy.legal_count;
+        }
+
+        /**
+         * @return les topN premiers coups de l'entrée
+         */
+        public LegalPolicy policy(int topN) {
+            return policy.head(topN);
+        }
+
+        /**
+         * @return la probabilité brute du réseau (avant renormalisation) du i-ème coup gardé
+         */
+        public float rawPrior(int i) {
+            return policy.priors[i] * legal_mass;
+        }
+    }
+
+    /**
+     * Une part du cache : table d'index et anneau CLOCK des entrées, sous le verrou du segment.
+     */
+    private static final class Segment {
+        private final Entry[] slots;
+        private final boolean[] referenced; //relue depuis le dernier passage de l'aiguille
+        private final Map<Long, Integer> index;
+        private int size;
+        private int hand;
+
+        Segment(int capacity) {
+            this.slots = new Entry[capacity];
+            this.referenced = new boolean[capacity];
+            this.index = new HashMap<>(capacity * 2);
+        }
+
+        synchronized Entry get(long key) {
+            Integer slot = index.get(key);
+            if (slot == null) return null;
+            referenced[slot] = true;
+            return slots[slot];
+        }
+
+        /**
+         * @return true si une entrée a été évincée pour faire de la place
+         */
+        synchronized boolean put(Entry entry) {
+            Integer slot = index.get(entry.key);
+            if (slot != null) {
+                slots[slot] = entry;
+                return false;
+            }
+            boolean evicted = false;
+            int free;
+            if (size < slots.length) {
+                free = size++;
+            } else {
+                //l'aiguille retire leur marque aux entrées relues et s'arrête sur la première entrée non marquée
+                while (referenced[hand]) {
+                    referenced[hand] = false;
+                    hand = (hand + 1) % slots.length;
+                }
+                free = hand;
+                hand = (hand + 1) % slots.length;
+                index.remove(slots[free].key);
+                evicted = true;
+            }
+            //une nouvelle entrée n'est pas marquée : les feuilles vues une seule fois partent au premier passage
+            slots[free] = entry;
+            referenced[free] = false;
+            index.put(entry.key, free);
+            return evicted;
+        }
+
+        synchronized void clear() {
+            Arrays.fill(slots, null);
+            Arrays.fill(referenced, false);
+            index.clear();
+            size = 0;
+            hand = 0;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package openzero.utils;
+
+import com.github.bhlangonijr.chesslib.Board;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Service d'inférence partagé par toutes les parties et recherches du processus. Un ComputationGraph n'est pas
+ * utilisable par plusieurs threads : le service possède le modèle (et ses éventuelles copies), reçoit les positions
+ * de n'importe quel thread et les regroupe en lots.
+ * <p>
+ * Chaque copie du modèle a son thread : il attend une position, puis prend les suivantes jusqu'à maxBatch positions
+ * ou jusqu'à ce que la plus ancienne ait attendu maxWait microsecondes, et évalue le lot en un seul appel.
+ * Avec maxWait = 0, le thread n'attend pas : il évalue ce qui est déjà en file (pour les appelants qui évaluent
+ * une position à la fois et n'ont personne avec qui former un lot).
+ * Les recherches concurrentes remplissent ainsi les lots les unes des autres au lieu d'alterner sur le modèle,
+ * et le mode pipeline de MonteCarloTreeSearch y dépose ses feuilles sans attendre leur évaluation.
+ */
+public class InferenceService implements AutoCloseable {
+    private static final int LATENCY_WINDOW = 1 << 16; //nombre de latences gardées pour les centiles
+
+    private final BlockingQueue<Request> queue;
+    private final int maxBatch; //nombre maximum de positions par appel au réseau
+    private final long maxWaitNanos; //attente maximale de la plus ancienne position avant l'appel
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean closed;
+
+    //mesures
+    private final AtomicLongArray batchSizes; //histogramme : nombre de lots de chaque taille
+    private final AtomicInteger maxDepth = new AtomicInteger(); //profondeur maximale observée de la file
+    private final AtomicLong evaluated = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong(); //temps passé dans le réseau, toutes copies confondues
+    private final AtomicLong submitNanos = new AtomicLong(); //temps passé par les appelants bloqués sur la file pleine
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_WINDOW); //dernières latences (ns), du dépôt au résultat, écrites par toutes les copies
+    private final AtomicLong latencyCount = new AtomicLong();
+    private volatile long statsStart;
+
+    /**
+     * Sortie du réseau pour une position : valeur du point de vue des blancs et ligne de politique (4672 valeurs).
+     */
+    public static final class Result {
+        public final float value;
+        public final float[] policy;
+
+        Result(float value, float[] policy) {
+            this.value = value;
+            this.policy = policy;
+        }
+    }
+
+    private static final class Request {
+        final float[] input; //la position encodée (PositionEncoder.PLANES valeurs)
+        final long submitted = System.nanoTime();
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+
+        Request(float[] input) {
+            this.input = input;
+        }
+    }
+
+    /**
+     * @param interpreter l'interpréteur dont le modèle est servi (sa copie passe par output(), déjà sérialisé,
+     *                    les autres appels directs à l'interpréteur restent donc sûrs)
+     * @param replicas le nombre de copies du modèle, chacune avec son thread (1 suffit souvent : les BLAS sont déjà parallèles)
+     * @param maxBatch le nombre maximum de positions par appel au réseau
+     * @param maxWaitMicros l'attente maximale d'une position avant l'appel, pour laisser les lots se remplir
+     *                      (0 : évaluation immédiate de ce qui est en file)
+     * @param capacity la profondeur maximale de la file (au-delà, submit() bloque)
+     */
+    public InferenceService(ChessModelInterpreter interpreter, int replicas, int maxBatch, long maxWaitMicros, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        this.maxWaitNanos = maxWaitMicros * 1_000L;
+        this.batchSizes = new AtomicLongArray(maxBatch + 1);
+        this.statsStart = System.nanoTime();
+        for (int i = 0; i < replicas; i++) {
+            Function<INDArray, INDArray[]> model;
+            if (i == 0) {
+                model = interpreter::output;
+            } else {
+                ComputationGraph copy = interpreter.model.clone();
+                model = tensor -> copy.output(false, new INDArray[]{tensor}, null, null, null);
+            }
+            Thread worker = new Thread(() -> run(model), "inference-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+        for (Thread worker : workers) worker.start();
+    }
+
+    /**
+     * Encode la position sur le thread appelant (le plateau peut être modifié dès le retour) et la dépose dans la file.
+     * @return le résultat à venir
+     */
+    public CompletableFuture<Result> submit(Board board) {
+        float[] input = new float[PositionEncoder.PLANES];
+        PositionEncoder.encode(board, input, 0);
+        return submit(input);
+    }
+
+    /**
+     * @param tensor le tenseur [1,8,8,17] d'une position
+     */
+    public CompletableFuture<Result> submit(INDArray tensor) {
+        return submit(tensor.toFloatVector());
+    }
+
+    /**
+     * Dépose une position déjà encodée (bloque si la file est pleine).
+     * @param input la position encodée par PositionEncoder (le tableau ne doit plus être modifié)
+     * @return le résultat à venir
+     */
+    public CompletableFuture<Result> submit(float[] input) {
+        if (closed) throw new IllegalStateException("service d'inférence fermé");
+        Request request = new Request(input);
+        long start = System.nanoTime();
+        try {
+            queue.put(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.future.completeExceptionally(e);
+            return request.future;
+        }
+        submitNanos.addAndGet(System.nanoTime() - start);
+        //close() a pu vider la file entre le test de closed et le dépôt : personne n'évaluerait la requête
+        if (closed && queue.remove(request)) request.future.cancel(false);
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+        return request.future;
+    }
+
+    /**
+     * Boucle d'un thread d'inférence : forme un lot (taille maximale ou attente maximale atteinte) et l'évalue.
+     */
+    private void run(Function<INDArray, INDArray[]> model) {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        float[] data = new float[maxBatch * PositionEncoder.PLANES];
+        while (!closed) {
+            try {
+                Request first = queue.take();
+                batch.add(first);
+                long deadline = first.submitted + maxWaitNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || remaining <= 0) break;
+                    Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                for (Request request : batch) request.future.cancel(false);
+                break;
+            }
+
+            int size = batch.size();
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < size; i++) {
+                    System.arraycopy(batch.get(i).input, 0, data, i * PositionEncoder.PLANES, PositionEncoder.PLANES);
+                }
+                float[] input = size == maxBatch ? data : Arrays.copyOf(data, size * PositionEncoder.PLANES);
+                INDArray[] output = model.apply(Nd4j.create(input, new long[]{size, 8, 8, 17}, 'c'));
+                float[] values = output[0].toFloatVector();
+                float[][] policies = output[1].toFloatMatrix();
+                long done = System.nanoTime();
+                for (int i = 0; i < size; i++) {
+                    Request request = batch.get(i);
+                    recordLatency(done - request.submitted);
+                    request.future.complete(new Result(values[i], policies[i]));
+                }
+            } catch (Throwable e) {
+                //y compris les Error natives : le thread continue et aucun appelant ne reste bloqué sur join()
+                for (Request request : batch) request.future.completeExceptionally(e);
+            }
+            busyNanos.addAndGet(System.nanoTime() - start);
+            batchSizes.incrementAndGet(size);
+            evaluated.addAndGet(size);
+            batch.clear();
+        }
+    }
+
+    private void recordLatency(long nanos) {
+        latencies.set((int) (latencyCount.getAndIncrement() & (LATENCY_WINDOW - 1)), nanos);
+    }
+
+    /**
+     * Arrête les threads d'inférence (les requêtes encore en file sont annulées).
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) worker.interrupt();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        //drainTo retire chaque requête une seule fois : un submit() concurrent l'annule lui-même s'il la retrouve en file
+        List<Request> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (Request request : pending) request.future.cancel(false);
+    }
+
+    public void resetStats() {
+        for (int i = 0; i < batchSizes.length(); i++) batchSizes.set(i, 0);
+        maxDepth.set(0);
+        evaluated.set(0);
+        busyNanos.set(0);
+        submitNanos.set(0);
+        latencyCount.set(0);
+        statsStart = System.nanoTime();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * @return le temps total (ns) passé par les appelants à attendre une place dans la file
+     */
+    public long getSubmitBlockedNanos() {
+        return submitNanos.get();
+    }
+
+    public long getEvaluated() {
+        return evaluated.get();
+    }
+
+    /**
+     * @return l'histogramme des tailles de lot : l'élément i est le nombre d'appels au réseau avec i positions
+     */
+    public long[] getBatchSizeHistogram() {
+        long[] histogram = new long[batchSizes.length()];
+        for (int i = 0; i < histogram.length; i++) histogram[i] = batchSizes.get(i);
+        return histogram;
+    }
+
+    public double getMeanBatchSize() {
+        long batches = 0;
+        for (int i = 0; i < batchSizes.length(); i++) batches += batchSizes.get(i);
+        return batches == 0 ? 0 : evaluated.get() / (double) batches;
+    }
+
+    /**
+     * @return la part du temps écoulé depuis resetStats() pendant laquelle le réseau a travaillé (peut dépasser 1 avec plusieurs copies)
+     */
+    public double getInferenceUtilisation() {
+        return busyNanos.get() / (double) Math.max(1, System.nanoTime() - statsStart);
+    }
+
+    /**
+     * Centile de la latence (dépôt de la position jusqu'au résultat) sur les dernières positions évaluées.
+     * @param percentile entre 0 et 100
+     * @return la latence en microsecondes (0 si aucune mesure)
+     */
+    public double getLatencyPercentile(double percentile) {
+        int count = (int) Math.min(latencyCount.get(), LATENCY_WINDOW);
+        if (count == 0) return 0;
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) sorted[i] = latencies.get(i);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / 1e3;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder histogram = new StringBuilder();
+        long[] sizes = getBatchSizeHistogram();
+        for (int i = 1; i < sizes.length; i++) {
+            if (sizes[i] > 0) histogram.append(' ').append(i).append(':').append(sizes[i]);
+        }
+        return String.format("%d positions | lot moyen %.1f | file %d (max %d) | latence p50 %.0f µs p90 %.0f µs p99 %.0f µs"
+                        + " | réseau %.0f%% | lots%s",
+                getEvaluated(), getMeanBatchSize(), getQueueDepth(), getMaxQueueDepth(), getLatencyPercentile(50),
+                getLatencyPercentile(90), getLatencyPercentile(99), 100 * getInferenceUtilisation(), histogram);
+    }
+}
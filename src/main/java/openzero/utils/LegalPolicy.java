@@ -0,0 +1,97 @@
+package openzero.utils;
+
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.move.Move;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Coups légaux d'une position avec leur indice dans le vecteur de politique (0..4671)
+ * et, une fois le réseau appelé, leurs probabilités renormalisées sur les seuls coups légaux.
+ * Les coups sont générés une seule fois par position : plus de traduction en string ni de recherche de sous-chaîne.
+ */
+public final class LegalPolicy {
+    public final Move[] moves; //les coups chesslib
+    public final int[] indices; //leur indice dans la sortie politique du réseau
+    public final float[] priors; //les probabilités associées (null tant que le réseau n'a pas été appelé)
+    public final int legal_count; //nombre de coups légaux de la position, avant la coupe aux topN
+
+    private LegalPolicy(Move[] moves, int[] indices, float[] priors, int legal_count) {
+        this.moves = moves;
+        this.indices = indices;
+        this.priors = priors;
+        this.legal_count = legal_count;
+    }
+
+    /**
+     * Génère les coups légaux de la position et calcule leur indice de politique.
+     * @param board la position
+     * @return les coups légaux, sans probabilités
+     */
+    public static LegalPolicy fromBoard(Board board) {
+        List<Move> legalMoves = board.legalMoves();
+        Move[] moves = new Move[legalMoves.size()];
+        int[] indices = new int[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = legalMoves.get(i);
+            indices[i] = MoveCodec.encode(moves[i]);
+        }
+        return new LegalPolicy(moves, indices, null, moves.length);
+    }
+
+    /**
+     * Lit dans la sortie du réseau la probabilité de chaque coup légal, renormalise sur les coups légaux
+     * et garde les topN plus probables (ordre décroissant).
+     * @param policy une ligne de la sortie politique (4672 valeurs, copiée une fois depuis l'INDArray)
+     * @param topN le nombre maximum de coups gardés
+     * @return une nouvelle LegalPolicy triée, avec ses probabilités
+     */
+    public LegalPolicy withPriors(float[] policy, int topN) {
+        int n = moves.length;
+        float[] values = new float[n];
+        float sum = 0;
+        for (int i = 0; i < n; i++) {
+            values[i] = policy[indices[i]];
+            sum += values[i];
+        }
+
+        int[] order = new int[Math.min(topN, n)];
+        float[] sorted = new float[order.length];
+        int kept = TopK.select(values, 0, n, topN, order, sorted);
+        Move[] keptMoves = new Move[kept];
+        int[] keptIndices = new int[kept];
+        float[] keptPriors = new float[kept];
+        for (int i = 0; i < kept; i++) {
+            keptMoves[i] = moves[order[i]];
+            keptIndices[i] = indices[order[i]];
+            //si le réseau ne donne aucune masse aux coups légaux, distribution uniforme
+            keptPriors[i] = sum > 0 ? sorted[i] / sum : 1f / n;
+        }
+        return new LegalPolicy(keptMoves, keptIndices, keptPriors, this.legal_count);
+    }
+
+    /**
+     * @param n le nombre de coups voulus
+     * @return les n premiers coups (this s'il n'y en a pas plus), probabilités inchangées
+     */
+    public LegalPolicy head(int n) {
+        if (n >= moves.length) return this;
+        return new LegalPolicy(Arrays.copyOf(moves, n), Arrays.copyOf(indices, n),
+                priors == null ? null : Arrays.copyOf(priors, n), legal_count);
+    }
+
+    /**
+     * @param index un indice de politique
+     * @return le coup légal correspondant, ou null s'il n'est pas dans cette liste
+     */
+    public Move moveFor(int index) {
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] == index) return moves[i];
+        }
+        return null;
+    }
+
+    public int size() {
+        return moves.length;
+    }
+}
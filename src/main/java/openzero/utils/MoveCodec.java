@@ -0,0 +1,157 @@
+package openzero.utils;
+
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.Piece;
+import com.github.bhlangonijr.chesslib.PieceType;
+import com.github.bhlangonijr.chesslib.Side;
+import com.github.bhlangonijr.chesslib.Square;
+import com.github.bhlangonijr.chesslib.move.Move;
+
+import java.util.Arrays;
+
+/**
+ * Conversion entre un indice du vecteur de politique (0..4671 = case * 73 + direction) et un coup chesslib,
+ * dans les deux sens, par des tables primitives calculées une fois au chargement de la classe.
+ * Aucune allocation après l'initialisation : les Move renvoyés sont des instances partagées (à ne pas modifier).
+ * Même encodage que ChessModelInterpreter.translateMoves (ligne 0 = 8e rangée).
+ */
+public final class MoveCodec {
+    public static final int POLICY_SIZE = 64 * 73;
+    public static final int NONE = -1;
+
+    //décalages (rangée, colonne) des directions 0..63, dans l'ordre de directionMap
+    private static final int[] RANK_DELTA = new int[64];
+    private static final int[] FILE_DELTA = new int[64];
+
+    //indice -> cases (ordinal chesslib : a1 = 0, h8 = 63), par camp (les sous-promotions dépendent du sens de la marche)
+    private static final int[][] FROM = new int[2][POLICY_SIZE];
+    private static final int[][] TO = new int[2][POLICY_SIZE];
+    //indice -> coup, par camp ; QUEEN_PROMOTION est utilisé quand la pièce jouée est un pion qui atteint la dernière rangée
+    private static final Move[][] MOVES = new Move[2][POLICY_SIZE];
+    private static final Move[][] QUEEN_PROMOTION = new Move[2][POLICY_SIZE];
+    //(from, to) -> direction 0..63, NONE si aucun coup de reine ou de cavalier ne relie les deux cases
+    private static final int[] DIRECTION = new int[64 * 64];
+
+    private MoveCodec() {
+    }
+
+    static {
+        int direction = 0;
+        //[N, S, E, W, NE, SW, SE, NW] sur 1 à 7 cases = 0-55
+        int[][] rays = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {-1, -1}, {-1, 1}, {1, -1}};
+        for (int[] ray : rays) {
+            for (int distance = 1; distance <= 7; distance++, direction++) {
+                RANK_DELTA[direction] = ray[0] * distance;
+                FILE_DELTA[direction] = ray[1] * distance;
+            }
+        }
+        //les 8 mouvements du cavalier = 56-63
+        int[][] knight = {{2, 1}, {2, -1}, {-2, 1}, {-2, -1}, {1, 2}, {1, -2}, {-1, 2}, {-1, -2}};
+        for (int[] jump : knight) {
+            RANK_DELTA[direction] = jump[0];
+            FILE_DELTA[direction] = jump[1];
+            direction++;
+        }
+
+        Arrays.fill(DIRECTION, NONE);
+        for (int d = 0; d < 64; d++) {
+            for (int from = 0; from < 64; from++) {
+                int to = target(from, RANK_DELTA[d], FILE_DELTA[d]);
+                if (to != NONE) DIRECTION[from * 64 + to] = d;
+            }
+        }
+
+        for (Side side : new Side[]{Side.WHITE, Side.BLACK}) {
+            int s = side.ordinal();
+            Arrays.fill(FROM[s], NONE);
+            Arrays.fill(TO[s], NONE);
+            int forward = side == Side.WHITE ? 1 : -1;
+            for (int index = 0; index < POLICY_SIZE; index++) {
+                int square = index / 73;
+                int d = index % 73;
+                int from = (7 - square / 8) * 8 + square % 8;
+                int to;
+                Piece promotion = Piece.NONE;
+                if (d < 64) {
+                    to = target(from, RANK_DELTA[d], FILE_DELTA[d]);
+                } else {
+                    //sous-promotions = 64-72 : 64 + 3 * [N, B, R] + [diagonale droite, diagonale gauche, tout droit]
+                    int column = (d - 64) % 3;
+                    int fileDelta = column == 0 ? 1 : column == 1 ? -1 : 0;
+                    to = target(from, forward, fileDelta);
+                    PieceType type = (d - 64) / 3 == 0 ? PieceType.KNIGHT : (d - 64) / 3 == 1 ? PieceType.BISHOP : PieceType.ROOK;
+                    promotion = Piece.make(side, type);
+                }
+                if (to == NONE) continue;
+                FROM[s][index] = from;
+                TO[s][index] = to;
+                MOVES[s][index] = new Move(Square.squareAt(from), Square.squareAt(to), promotion);
+                boolean lastRank = to / 8 == (side == Side.WHITE ? 7 : 0);
+                if (d < 64 && lastRank && Math.abs(RANK_DELTA[d]) == 1 && Math.abs(FILE_DELTA[d]) <= 1) {
+                    QUEEN_PROMOTION[s][index] = new Move(Square.squareAt(from), Square.squareAt(to), Piece.make(side, PieceType.QUEEN));
+                }
+            }
+        }
+    }
+
+    private static int target(int from, int rankDelta, int fileDelta) {
+        int rank = from / 8 + rankDelta;
+        int file = from % 8 + fileDelta;
+        if (rank < 0 || rank > 7 || file < 0 || file > 7) return NONE;
+        return rank * 8 + file;
+    }
+
+    /**
+     * @param move le coup chesslib
+     * @return son indice dans le vecteur de politique (0..4671), ou NONE si le coup n'est pas représentable
+     */
+    public static int encode(Move move) {
+        int from = move.getFrom().ordinal();
+        int to = move.getTo().ordinal();
+        int square = (7 - from / 8) * 8 + from % 8;
+        Piece promotion = move.getPromotion();
+        if (promotion != null && promotion != Piece.NONE && promotion.getPieceType() != PieceType.QUEEN) {
+            int fileDelta = to % 8 - from % 8;
+            int column = fileDelta == 1 ? 0 : fileDelta == -1 ? 1 : 2;
+            int piece = promotion.getPieceType() == PieceType.KNIGHT ? 0 : promotion.getPieceType() == PieceType.BISHOP ? 1 : 2;
+            return square * 73 + 64 + 3 * piece + column;
+        }
+        int direction = DIRECTION[from * 64 + to];
+        return direction == NONE ? NONE : square * 73 + direction;
+    }
+
+    /**
+     * @param index un indice du vecteur de politique
+     * @param board la position (sert à reconnaître une promotion en reine : pion sur l'avant-dernière rangée)
+     * @return le coup correspondant (pas forcément légal), ou null si l'indice sort de l'échiquier
+     */
+    public static Move decode(int index, Board board) {
+        int s = board.getSideToMove().ordinal();
+        Move queenPromotion = QUEEN_PROMOTION[s][index];
+        if (queenPromotion != null && board.getPiece(queenPromotion.getFrom()).getPieceType() == PieceType.PAWN) {
+            return queenPromotion;
+        }
+        return MOVES[s][index];
+    }
+
+    /**
+     * Décode sans plateau : une promotion en reine n'est pas reconnue (utiliser decode(index, board) pour les coups de pion).
+     */
+    public static Move decode(int index, Side side) {
+        return MOVES[side.ordinal()][index];
+    }
+
+    /**
+     * @return la case de départ (ordinal chesslib) ou NONE
+     */
+    public static int from(int index, Side side) {
+        return FROM[side.ordinal()][index];
+    }
+
+    /**
+     * @return la case d'arrivée (ordinal chesslib) ou NONE
+     */
+    public static int to(int index, Side side) {
+        return TO[side.ordinal()][index];
+    }
+}
@@ -0,0 +1,101 @@
+package openzero.utils;
+
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.CastleRight;
+import com.github.bhlangonijr.chesslib.Piece;
+import com.github.bhlangonijr.chesslib.Side;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Arrays;
+
+/**
+ * Encodage d'une position en entrée du réseau, identique à FenToTensor (ligne 0 = 8e rangée, NHWC, 17 canaux :
+ * 12 pièces, trait aux blancs, 4 droits de roque), écrit directement dans un tampon fourni par l'appelant.
+ * Les pièces sont lues dans les bitboards de chesslib : pas de FEN à découper, pas de vue,
+ * aucune allocation par position (un tenseur de lot est rempli depuis un tableau réutilisé par thread).
+ */
+public final class PositionEncoder {
+    public static final int PLANES = 8 * 8 * 17; //taille d'une position dans le tenseur d'entrée
+    private static final int CHANNELS = 17;
+    private static final int SIDE_TO_MOVE = 12;
+    private static final int WHITE_KING_SIDE = 13;
+    private static final int WHITE_QUEEN_SIDE = 14;
+    private static final int BLACK_KING_SIDE = 15;
+    private static final int BLACK_QUEEN_SIDE = 16;
+
+    //pièces dans l'ordre des canaux (pieceMap de ChessModelInterpreter : PNBRQK puis pnbrqk)
+    private static final Piece[] PIECES = {
+            Piece.WHITE_PAWN, Piece.WHITE_KNIGHT, Piece.WHITE_BISHOP, Piece.WHITE_ROOK, Piece.WHITE_QUEEN, Piece.WHITE_KING,
+            Piece.BLACK_PAWN, Piece.BLACK_KNIGHT, Piece.BLACK_BISHOP, Piece.BLACK_ROOK, Piece.BLACK_QUEEN, Piece.BLACK_KING
+    };
+
+    //une position encodée par thread, recopiée dans les tenseurs de lot
+    private static final ThreadLocal<float[]> SCRATCH = ThreadLocal.withInitial(() -> new float[PLANES]);
+
+    private PositionEncoder() {
+    }
+
+    /**
+     * @param board la position
+     * @param data un tableau [N,8,8,17] aplati (ordre 'c')
+     * @param offset le début de la position dans data (position du lot * PLANES)
+     */
+    public static void encode(Board board, float[] data, int offset) {
+        Arrays.fill(data, offset, offset + PLANES, 0);
+        for (int channel = 0; channel < PIECES.length; channel++) {
+            long bitboard = board.getBitboard(PIECES[channel]);
+            while (bitboard != 0) {
+                data[offset + cell(Long.numberOfTrailingZeros(bitboard)) * CHANNELS + channel] = 1;
+                bitboard &= bitboard - 1;
+            }
+        }
+        if (board.getSideToMove() == Side.WHITE) fillPlane(data, offset, SIDE_TO_MOVE);
+        CastleRight white = board.getCastleRight(Side.WHITE);
+        CastleRight black = board.getCastleRight(Side.BLACK);
+        if (kingSide(white)) fillPlane(data, offset, WHITE_KING_SIDE);
+        if (queenSide(white)) fillPlane(data, offset, WHITE_QUEEN_SIDE);
+        if (kingSide(black)) fillPlane(data, offset, BLACK_KING_SIDE);
+        if (queenSide(black)) fillPlane(data, offset, BLACK_QUEEN_SIDE);
+    }
+
+    /**
+     * Écrit la position à sa place dans un tenseur de lot réutilisé, directement dans son tampon.
+     * @param board la position
+     * @param batch un tenseur [N,8,8,17] contigu en ordre 'c' (créé par Nd4j.create, pas une vue)
+     * @param position la place de la position dans le lot (0..N-1)
+     */
+    public static void encode(Board board, INDArray batch, int position) {
+        if (batch.isView() || batch.ordering() != 'c') {
+            throw new IllegalArgumentException("le lot doit être un tenseur contigu en ordre 'c', pas une vue");
+        }
+        long offset = (long) position * PLANES;
+        if (offset + PLANES > batch.length()) {
+            throw new IllegalArgumentException("position " + position + " hors du lot de " + batch.length() / PLANES);
+        }
+        float[] scratch = SCRATCH.get();
+        encode(board, scratch, 0);
+        DataBuffer buffer = batch.data();
+        for (int i = 0; i < PLANES; i++) buffer.put(offset + i, scratch[i]);
+    }
+
+    /**
+     * @param square l'indice chesslib de la case (0 = a1, 63 = h8)
+     * @return la case dans le plan 8x8 du tenseur (ligne 0 = 8e rangée)
+     */
+    private static int cell(int square) {
+        return (7 - (square >>> 3)) * 8 + (square & 7);
+    }
+
+    private static boolean kingSide(CastleRight right) {
+        return right == CastleRight.KING_SIDE || right == CastleRight.KING_AND_QUEEN_SIDE;
+    }
+
+    private static boolean queenSide(CastleRight right) {
+        return right == CastleRight.QUEEN_SIDE || right == CastleRight.KING_AND_QUEEN_SIDE;
+    }
+
+    private static void fillPlane(float[] data, int offset, int channel) {
+        for (int cell = 0; cell < 64; cell++) data[offset + cell * CHANNELS + channel] = 1;
+    }
+}
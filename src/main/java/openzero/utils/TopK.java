@@ -0,0 +1,89 @@
+package openzero.utils;
+
+/**
+ * Sélection partielle des k plus grandes valeurs d'un tableau, sans le trier entièrement :
+ * un tas-min de taille k est maintenu pendant un seul parcours (O(n log k)), puis trié à la fin (O(k log k)).
+ * Remplace Nd4j.sortWithIndices sur les 4672 sorties de la politique quand seuls les topN (10-20) sont utiles.
+ * Les résultats sont écrits dans des tableaux fournis par l'appelant, aucune INDArray n'est créée.
+ */
+public final class TopK {
+    private TopK() {
+    }
+
+    /**
+     * @param values les valeurs
+     * @param offset le début de la plage à parcourir
+     * @param length la longueur de la plage
+     * @param k le nombre de valeurs à garder
+     * @param indices reçoit les indices (relatifs à offset) des k plus grandes valeurs, en ordre décroissant
+     * @param scores reçoit les valeurs associées
+     * @return le nombre de résultats écrits (min(k, length))
+     */
+    public static int select(float[] values, int offset, int length, int k, int[] indices, float[] scores) {
+        if (k <= 0) return 0;
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            float value = values[offset + i];
+            if (size < k) {
+                //remplissage du tas
+                int child = size++;
+                while (child > 0) {
+                    int parent = (child - 1) >>> 1;
+                    if (scores[parent] <= value) break;
+                    scores[child] = scores[parent];
+                    indices[child] = indices[parent];
+                    child = parent;
+                }
+                scores[child] = value;
+                indices[child] = i;
+            } else if (value > scores[0]) {
+                //la plus petite des k valeurs gardées est remplacée
+                siftDown(indices, scores, size, i, value);
+            }
+        }
+
+        //tri du tas : on retire le minimum en le plaçant à la fin, ce qui donne l'ordre décroissant
+        for (int end = size - 1; end > 0; end--) {
+            int index = indices[end];
+            float value = scores[end];
+            indices[end] = indices[0];
+            scores[end] = scores[0];
+            siftDown(indices, scores, end, index, value);
+        }
+        return size;
+    }
+
+    /**
+     * Variante par lot : une sélection par ligne de la sortie politique [N,4672] (copiée une fois avec toFloatMatrix()).
+     * @param rows les lignes
+     * @param k le nombre de valeurs gardées par ligne
+     * @param indices reçoit pour chaque ligne ses k indices (tableau [N][k])
+     * @param scores reçoit pour chaque ligne ses k valeurs (tableau [N][k])
+     * @return le nombre de résultats écrits par ligne
+     */
+    public static int selectRows(float[][] rows, int k, int[][] indices, float[][] scores) {
+        int count = 0;
+        for (int row = 0; row < rows.length; row++) {
+            count = select(rows[row], 0, rows[row].length, k, indices[row], scores[row]);
+        }
+        return count;
+    }
+
+    /**
+     * Place (index, value) à la racine du tas-min de taille size et le fait descendre.
+     */
+    private static void siftDown(int[] indices, float[] scores, int size, int index, float value) {
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= size) break;
+            if (child + 1 < size && scores[child + 1] < scores[child]) child++;
+            if (scores[child] >= value) break;
+            scores[parent] = scores[child];
+            indices[parent] = indices[child];
+            parent = child;
+        }
+        scores[parent] = value;
+        indices[parent] = index;
+    }
+}
@@ -0,0 +1,77 @@
+package openzero.utils;
+
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.Piece;
+import com.github.bhlangonijr.chesslib.PieceType;
+import com.github.bhlangonijr.chesslib.Side;
+import com.github.bhlangonijr.chesslib.move.Move;
+import junit.framework.TestCase;
+import openzero.Benchmark;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Vérification exhaustive de MoveCodec : aller-retour sur les 4672 indices des deux camps,
+ * accord avec translateMoves sur les coups légaux de positions aléatoires, et promotions.
+ */
+public class MoveCodecTest extends TestCase {
+
+    public void testRoundTripOverAllIndices() {
+        int decoded = 0;
+        for (Side side : new Side[]{Side.WHITE, Side.BLACK}) {
+            for (int index = 0; index < MoveCodec.POLICY_SIZE; index++) {
+                Move move = MoveCodec.decode(index, side);
+                if (move == null) continue; //l'indice sort de l'échiquier
+                decoded++;
+                assertEquals("indice " + index + " (" + side + ") -> " + move, index, MoveCodec.encode(move));
+                assertEquals("indice " + index + " (" + side + ")", move, MoveCodec.decode(MoveCodec.encode(move), side));
+            }
+        }
+        assertTrue("aucun indice décodé", decoded > 0);
+    }
+
+    public void testLegalMovesMatchTranslateMoves() {
+        ChessModelInterpreter interpreter = new ChessModelInterpreter();
+        int legal = 0;
+        for (String fen : Benchmark.randomPositions(500, 42)) {
+            Board board = new Board();
+            board.loadFromFen(fen);
+            INDArray tensor = interpreter.FenToTensor(fen);
+            for (Move move : board.legalMoves()) {
+                legal++;
+                int index = MoveCodec.encode(move);
+                assertTrue(fen + " | " + move + " non représentable", index != MoveCodec.NONE);
+                assertEquals(fen + " | " + move, move, MoveCodec.decode(index, board));
+                assertEquals(fen + " | " + move, move.toString().toLowerCase(), interpreter.translateMoves(index, tensor).toLowerCase());
+            }
+        }
+        assertTrue("aucun coup légal vérifié", legal > 0);
+    }
+
+    public void testPromotionsRoundTrip() {
+        String[] fens = {
+                "1r5k/P7/8/8/8/8/8/4K3 w - - 0 1", //a7a8 et a7xb8, blancs
+                "4k3/8/8/8/8/8/7p/K5R1 b - - 0 1" //h2h1 et h2xg1, noirs
+        };
+        for (String fen : fens) {
+            Board board = new Board();
+            board.loadFromFen(fen);
+            int under = 0, queen = 0;
+            for (Move move : board.legalMoves()) {
+                Piece promotion = move.getPromotion();
+                if (promotion == null || promotion == Piece.NONE) continue;
+                int index = MoveCodec.encode(move);
+                assertTrue(fen + " | " + move + " non représentable", index != MoveCodec.NONE);
+                assertEquals(fen + " | " + move, move, MoveCodec.decode(index, board));
+                if (promotion.getPieceType() == PieceType.QUEEN) {
+                    queen++;
+                } else {
+                    //une sous-promotion a son propre indice : décodable aussi sans plateau
+                    assertEquals(fen + " | " + move, move, MoveCodec.decode(index, board.getSideToMove()));
+                    under++;
+                }
+            }
+            assertEquals(fen + " : promotions en reine", 2, queen);
+            assertEquals(fen + " : sous-promotions", 6, under);
+        }
+    }
+}
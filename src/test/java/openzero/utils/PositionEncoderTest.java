@@ -0,0 +1,81 @@
+package openzero.utils;
+
+import com.github.bhlangonijr.chesslib.Board;
+import junit.framework.TestCase;
+import openzero.Benchmark;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PositionEncoder (tableau et tenseur de lot) et BoardToTensor doivent donner exactement l'encodage de FenToTensor,
+ * valeur par valeur (bits des float comparés), sur des positions de parties aléatoires.
+ */
+public class PositionEncoderTest extends TestCase {
+    private static final int LOT = 64;
+
+    private final ChessModelInterpreter interpreter = new ChessModelInterpreter();
+    private final List<String> fens = Benchmark.randomPositions(2_000, 11);
+
+    public void testFloatArrayMatchesFenToTensor() {
+        float[] data = new float[LOT * PositionEncoder.PLANES];
+        Arrays.fill(data, 7); //encode() doit effacer ce qu'il y avait avant
+        for (int p = 0; p < fens.size(); p++) {
+            int offset = (p % LOT) * PositionEncoder.PLANES;
+            PositionEncoder.encode(board(fens.get(p)), data, offset);
+            assertSameEncoding(fens.get(p), Arrays.copyOfRange(data, offset, offset + PositionEncoder.PLANES));
+        }
+    }
+
+    public void testBatchMatchesFenToTensor() {
+        INDArray batch = Nd4j.create(DataType.FLOAT, LOT, 8, 8, 17);
+        batch.assign(7);
+        for (int p = 0; p < fens.size(); p++) {
+            int slot = p % LOT;
+            PositionEncoder.encode(board(fens.get(p)), batch, slot);
+            float[] encoded = new float[PositionEncoder.PLANES];
+            for (int i = 0; i < encoded.length; i++) encoded[i] = batch.data().getFloat((long) slot * PositionEncoder.PLANES + i);
+            assertSameEncoding(fens.get(p), encoded);
+        }
+    }
+
+    public void testBoardToTensorMatchesFenToTensor() {
+        for (String fen : fens) {
+            assertSameEncoding(fen, interpreter.BoardToTensor(board(fen)).toFloatVector());
+        }
+    }
+
+    public void testRejectsViewsAndFortranOrder() {
+        Board board = new Board();
+        INDArray view = Nd4j.create(DataType.FLOAT, 4, 8, 8, 17).slice(1);
+        try {
+            PositionEncoder.encode(board, view, 0);
+            fail("une vue doit être refusée");
+        } catch (IllegalArgumentException expected) {
+        }
+        INDArray fortran = Nd4j.create(DataType.FLOAT, new long[]{2, 8, 8, 17}, 'f');
+        try {
+            PositionEncoder.encode(board, fortran, 0);
+            fail("un tenseur en ordre 'f' doit être refusé");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private void assertSameEncoding(String fen, float[] encoded) {
+        float[] expected = interpreter.FenToTensor(fen).toFloatVector();
+        assertEquals(fen, expected.length, encoded.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(fen + " | case " + i / 17 + ", canal " + i % 17,
+                    Float.floatToRawIntBits(expected[i]), Float.floatToRawIntBits(encoded[i]));
+        }
+    }
+
+    private static Board board(String fen) {
+        Board board = new Board();
+        board.loadFromFen(fen);
+        return board;
+    }
+}